@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.benchmarks;
+
+import com.pddstudio.phrase.java.Phrase;
+import com.pddstudio.phrase.java.PhraseBatch;
+import com.pddstudio.phrase.java.PhraseTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows per second rendered by {@link PhraseBatch} with 1 to N worker threads, compared to creating
+ * one {@link Phrase} per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BatchBenchmark.ROWS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+	static final int ROWS = 100000;
+
+	private static final String PATTERN = "Hi {first_name}, your order #{order} of {amount} items ships in {days} days.";
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	private PhraseTemplate template;
+	private PhraseBatch batch;
+	private PhraseBatch.Columns columns;
+	private String[] names;
+	private long[] orders;
+	private int[] amounts;
+	private int[] days;
+	private ForkJoinPool pool;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		names = new String[ROWS];
+		orders = new long[ROWS];
+		amounts = new int[ROWS];
+		days = new int[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			names[i] = "customer" + i;
+			orders[i] = 4000000000L + i;
+			amounts[i] = i % 100;
+			days[i] = i % 14;
+		}
+		columns = PhraseBatch.Columns.of(ROWS)
+				.column("first_name", names)
+				.column("order", orders)
+				.column("amount", amounts)
+				.column("days", days);
+		template = PhraseTemplate.compile(PATTERN);
+		if (threads == 1) {
+			batch = PhraseBatch.of(template).sequential();
+		} else {
+			pool = new ForkJoinPool(threads);
+			batch = PhraseBatch.of(template).withPool(pool);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public List<String> batchColumns() {
+		return batch.render(columns);
+	}
+
+	@Benchmark
+	public String[] phrasePerRow() {
+		// The baseline only runs single threaded; the threads parameter has no effect on it.
+		String[] results = new String[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			results[i] = Phrase.from(PATTERN)
+					.put("first_name", names[i])
+					.put("order", orders[i])
+					.put("amount", amounts[i])
+					.put("days", days[i])
+					.formatString();
+		}
+		return results;
+	}
+
+}
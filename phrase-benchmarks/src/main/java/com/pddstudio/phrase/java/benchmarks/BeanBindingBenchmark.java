@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.benchmarks;
+
+import com.pddstudio.phrase.java.PhraseTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binds an order confirmation from a bean, from nested maps and with hand-written calls to
+ * {@code put}, without rendering it. Binding a bean invokes the accessors resolved on first use
+ * and should stay close to the calls to {@code put}; looking up dotted keys in maps costs more.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeanBindingBenchmark {
+
+	public static class Customer {
+
+		private final String firstName;
+		private final String city;
+
+		public Customer(String firstName, String city) {
+			this.firstName = firstName;
+			this.city = city;
+		}
+
+		public String getFirstName() {
+			return firstName;
+		}
+
+		public String getCity() {
+			return city;
+		}
+	}
+
+	public static class Order {
+
+		private final long id;
+		private final double total;
+		private final boolean express;
+		private final Customer customer;
+
+		public Order(long id, double total, boolean express, Customer customer) {
+			this.id = id;
+			this.total = total;
+			this.express = express;
+			this.customer = customer;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public double getTotal() {
+			return total;
+		}
+
+		public boolean isExpress() {
+			return express;
+		}
+
+		public Customer getCustomer() {
+			return customer;
+		}
+	}
+
+	private PhraseTemplate.Bindings bindings;
+	private Order order;
+	private Map<String, Object> values;
+
+	@Setup
+	public void setUp() {
+		PhraseTemplate template = PhraseTemplate.compile(
+				"Hi {customer.first_name}, order {id} to {customer.city} ({total} EUR, express: {express}) has shipped.");
+		bindings = template.newBindings();
+		order = new Order(4711, 99.95, true, new Customer("Ann", "Oslo"));
+		Map<String, Object> customer = new HashMap<String, Object>();
+		customer.put("first_name", "Ann");
+		customer.put("city", "Oslo");
+		values = new HashMap<String, Object>();
+		values.put("id", 4711L);
+		values.put("total", 99.95);
+		values.put("express", true);
+		values.put("customer", customer);
+	}
+
+	@Benchmark
+	public PhraseTemplate.Bindings bindBean() {
+		return bindings.bind(order);
+	}
+
+	@Benchmark
+	public PhraseTemplate.Bindings putAllMaps() {
+		return bindings.putAll(values);
+	}
+
+	@Benchmark
+	public PhraseTemplate.Bindings putByHand() {
+		Order order = this.order;
+		return bindings.put("customer.first_name", order.getCustomer().getFirstName())
+				.put("id", order.getId())
+				.put("customer.city", order.getCustomer().getCity())
+				.put("total", order.getTotal())
+				.put("express", order.isExpress());
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.benchmarks;
+
+import com.pddstudio.phrase.java.PhraseBundle;
+import com.pddstudio.phrase.java.PhraseTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of a 50k entry catalog: opening a {@link PhraseBundle} and rendering one template,
+ * compared to loading the catalog with {@link Properties} and compiling every template up front.
+ * Run with {@code -prof gc} to compare the allocated heap as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class BundleBenchmark {
+
+	private static final int ENTRIES = 50000;
+
+	private Path catalog;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		catalog = Files.createTempFile("catalog", ".properties");
+		try (Writer writer = Files.newBufferedWriter(catalog, StandardCharsets.UTF_8)) {
+			writer.write("# Generated catalog\n");
+			for (int i = 0; i < ENTRIES; i++) {
+				writer.write("screen_" + i + ".title = Hello {first_name}, you have {count} new messages on screen " + i + ".\n");
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.delete(catalog);
+	}
+
+	@Benchmark
+	public String lazyBundle() throws IOException {
+		PhraseBundle bundle = PhraseBundle.open(catalog);
+		return render(bundle.get("screen_25000.title"));
+	}
+
+	@Benchmark
+	public String eagerLoad() throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = new InputStreamReader(Files.newInputStream(catalog), StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		Map<String, PhraseTemplate> templates = new HashMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			templates.put(key, PhraseTemplate.compile(properties.getProperty(key)));
+		}
+		return render(templates.get("screen_25000.title"));
+	}
+
+	private static String render(PhraseTemplate template) {
+		return template.formatString(template.newBindings().put("first_name", "Jane").put("count", 3));
+	}
+
+}
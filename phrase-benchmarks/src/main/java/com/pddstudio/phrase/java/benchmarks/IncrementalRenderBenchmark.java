@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.benchmarks;
+
+import com.pddstudio.phrase.java.Phrase;
+import com.pddstudio.phrase.java.PhraseTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a long-lived {@link Phrase} with {@code keys} keys after replacing the value of a single
+ * key, with and without {@link Phrase#incremental()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncrementalRenderBenchmark {
+
+	@Param({ "8", "64", "512" })
+	public int keys;
+
+	private Phrase full;
+	private Phrase incremental;
+	private PhraseTemplate.Slot[] slots;
+	private long tick;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		StringBuilder pattern = new StringBuilder();
+		for (int i = 0; i < keys; i++) {
+			pattern.append("metric ").append(i).append(": {key").append(toLetters(i)).append("} units; ");
+		}
+		PhraseTemplate template = PhraseTemplate.compile(pattern);
+		full = Phrase.from(template);
+		incremental = Phrase.from(template).incremental();
+		slots = new PhraseTemplate.Slot[keys];
+		for (int i = 0; i < keys; i++) {
+			slots[i] = template.slot("key" + toLetters(i));
+			full.put(slots[i], 1000.0 + i);
+			incremental.put(slots[i], 1000.0 + i);
+		}
+		full.format();
+		incremental.format();
+	}
+
+	/** Keys may only contain letters and underscores. */
+	private static String toLetters(int i) {
+		StringBuilder letters = new StringBuilder();
+		do {
+			letters.append((char) ('a' + i % 26));
+			i /= 26;
+		} while (i > 0);
+		return letters.toString();
+	}
+
+	@Benchmark
+	public CharSequence fullRender() {
+		tick++;
+		return full.put(slots[(int) (tick % keys)], tick * 0.5).format();
+	}
+
+	@Benchmark
+	public CharSequence incrementalRender() {
+		tick++;
+		return incremental.put(slots[(int) (tick % keys)], tick * 0.5).format();
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.benchmarks;
+
+import com.pddstudio.phrase.java.PhraseTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formats currency amounts and metric lines with the number constructs of {@link PhraseTemplate},
+ * next to {@link String#format} and a shared {@link DecimalFormat} producing the same text. The
+ * values change on every call, so no result can be reused. Run with {@code -prof gc} for the
+ * allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberFormatBenchmark {
+
+	private static final double[] AMOUNTS = { 1234.5, 0.99, 98765.4321, 17, 250000.125, 3.14159, 42.42, 1e6 };
+
+	private PhraseTemplate currency;
+	private PhraseTemplate.Bindings currencyBindings;
+	private DecimalFormat currencyFormat;
+
+	private PhraseTemplate metrics;
+	private PhraseTemplate.Bindings metricsBindings;
+
+	private int next;
+
+	@Setup
+	public void setUp() {
+		currency = PhraseTemplate.compile("Total: {amount, number, #,##0.00} EUR");
+		currencyBindings = currency.newBindings();
+		currencyFormat = new DecimalFormat("#,##0.00", DecimalFormatSymbols.getInstance(Locale.ROOT));
+
+		metrics = PhraseTemplate.compile("cpu={cpu, number, 0.0}% mem={mem, number, #,##0} MB p99={latency, number, 0.00} ms");
+		metricsBindings = metrics.newBindings();
+	}
+
+	private double amount() {
+		return AMOUNTS[next++ & (AMOUNTS.length - 1)];
+	}
+
+	@Benchmark
+	public CharSequence currencyTemplate() {
+		return currency.format(currencyBindings.put("amount", amount()));
+	}
+
+	@Benchmark
+	public String currencyStringFormat() {
+		return String.format(Locale.ROOT, "Total: %,.2f EUR", amount());
+	}
+
+	@Benchmark
+	public String currencyDecimalFormat() {
+		return "Total: " + currencyFormat.format(amount()) + " EUR";
+	}
+
+	@Benchmark
+	public CharSequence metricsTemplate() {
+		double value = amount();
+		return metrics.format(metricsBindings.put("cpu", value / 1000).put("mem", (long) value * 3).put("latency", value / 7));
+	}
+
+	@Benchmark
+	public String metricsStringFormat() {
+		double value = amount();
+		return String.format(Locale.ROOT, "cpu=%.1f%% mem=%,d MB p99=%.2f ms", value / 1000, (long) value * 3, value / 7);
+	}
+
+}
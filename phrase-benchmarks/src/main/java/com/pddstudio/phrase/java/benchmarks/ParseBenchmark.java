@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.benchmarks;
+
+import com.pddstudio.phrase.java.Delimiters;
+import com.pddstudio.phrase.java.PhraseTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput for a generated multi-megabyte pattern, such as a report or an HTML email.
+ * Every operation is one character of the pattern, so the score in ops/us is the throughput in
+ * millions of characters (about MB of ASCII) per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(ParseBenchmark.PATTERN_LENGTH)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+	static final int PATTERN_LENGTH = 4 * 1024 * 1024;
+
+	private static final String[] KEYS = { "first_name", "last_name", "order_id", "amount", "ship_date", "tracking_url" };
+
+	/** The number of literal characters between two keys. */
+	@Param({ "40", "400" })
+	public int keySpacing;
+
+	/** The open and close delimiter, separated by a space; the single characters are key identifiers. */
+	@Param({ "{ }", "< >", "${ }", "{{ }}" })
+	public String delimiterPair;
+
+	private Delimiters delimiters;
+	private String pattern;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		String filler = "<td class=\"cell\">Lorem ipsum dolor sit amet, consectetur adipiscing elit</td>\n";
+		String open = delimiterPair.substring(0, delimiterPair.indexOf(' '));
+		String close = delimiterPair.substring(open.length() + 1);
+		delimiters = Delimiters.of(open, close);
+		StringBuilder sb = new StringBuilder(PATTERN_LENGTH);
+		int key = 0;
+		while (sb.length() < PATTERN_LENGTH) {
+			int literalEnd = sb.length() + keySpacing;
+			while (sb.length() < literalEnd) {
+				int offset = sb.length() % filler.length();
+				if (filler.startsWith(open, offset)) {
+					// Escape the open delimiter; the angle brackets of the HTML need it.
+					sb.append(delimiters.getEscape());
+				} else {
+					sb.append(filler.charAt(offset));
+				}
+			}
+			sb.append(open).append(KEYS[key++ % KEYS.length]).append(close);
+		}
+		sb.setLength(PATTERN_LENGTH);
+		// Don't cut off a key or an escape at the end.
+		pattern = sb.substring(0, sb.lastIndexOf(close) + close.length());
+	}
+
+	@Benchmark
+	public PhraseTemplate compile() {
+		return PhraseTemplate.compile(pattern, delimiters);
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.benchmarks;
+
+import com.pddstudio.phrase.java.Phrase;
+import com.pddstudio.phrase.java.PhraseTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hot paths of {@link Phrase}: parsing, putting values, formatting and joining arrays and
+ * lists, next to {@link String#format}, {@link MessageFormat} and a hand-written
+ * {@link StringBuilder} producing the same text. Reports throughput and latency percentiles; run
+ * with {@code -prof gc} for the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhraseBenchmark {
+
+	private static final String PATTERN = "Hi {first_name}, you are {age} years old and your balance is {balance}.";
+	private static final String FORMAT_PATTERN = "Hi %s, you are %d years old and your balance is %s.";
+	private static final String MESSAGE_PATTERN = "Hi {0}, you are {1} years old and your balance is {2}.";
+	private static final String JOIN_PATTERN = "Scores: {scores}; names: {names}";
+
+	private static final String FIRST_NAME = "Jane";
+	private static final int AGE = 42;
+	private static final double BALANCE = 1234.5;
+
+	private Phrase phrase;
+	private PhraseTemplate.Slot ageSlot;
+	private MessageFormat messageFormat;
+
+	private int[] scores;
+	private String[] names;
+	private List<String> nameList;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		phrase = Phrase.from(PATTERN).put("first_name", FIRST_NAME).put("age", AGE).put("balance", BALANCE);
+		ageSlot = phrase.getTemplate().slot("age");
+		messageFormat = new MessageFormat(MESSAGE_PATTERN, Locale.ROOT);
+
+		scores = new int[32];
+		names = new String[32];
+		nameList = new ArrayList<>();
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] = i * 37;
+			names[i] = "name" + i;
+			nameList.add(names[i]);
+		}
+	}
+
+	/** Parses the pattern every time; the template cache is bypassed. */
+	@Benchmark
+	public PhraseTemplate parse() {
+		return PhraseTemplate.compile(PATTERN);
+	}
+
+	/** Looks the template up in the shared cache, as most callers do. */
+	@Benchmark
+	public Phrase fromCached() {
+		return Phrase.from(PATTERN);
+	}
+
+	@Benchmark
+	public Phrase putString() {
+		return phrase.put("first_name", FIRST_NAME);
+	}
+
+	@Benchmark
+	public Phrase putPrimitives() {
+		return phrase.put("age", AGE).put("balance", BALANCE);
+	}
+
+	@Benchmark
+	public Phrase putSlot() {
+		return phrase.put(ageSlot, AGE);
+	}
+
+	/** Formats again after a put, so the cached result can't be reused. */
+	@Benchmark
+	public CharSequence format() {
+		return phrase.put(ageSlot, AGE).format();
+	}
+
+	@Benchmark
+	public String formatString() {
+		return phrase.put(ageSlot, AGE).formatString();
+	}
+
+	@Benchmark
+	public String fromPutFormat() {
+		return Phrase.from(PATTERN).put("first_name", FIRST_NAME).put("age", AGE).put("balance", BALANCE).formatString();
+	}
+
+	@Benchmark
+	public String putArray() {
+		return Phrase.from(JOIN_PATTERN).putArray("scores", scores, ", ").putArray("names", names, ", ").formatString();
+	}
+
+	@Benchmark
+	public String putList() {
+		return Phrase.from(JOIN_PATTERN).putArray("scores", scores, ", ").putList("names", nameList, ", ").formatString();
+	}
+
+	@Benchmark
+	public String baselineStringFormat() {
+		return String.format(Locale.ROOT, FORMAT_PATTERN, FIRST_NAME, AGE, String.valueOf(BALANCE));
+	}
+
+	/** A shared {@link MessageFormat}, which is not thread-safe but cheaper than parsing every time. */
+	@Benchmark
+	public String baselineMessageFormat() {
+		return messageFormat.format(new Object[] { FIRST_NAME, String.valueOf(AGE), String.valueOf(BALANCE) });
+	}
+
+	@Benchmark
+	public String baselineStringBuilder() {
+		return new StringBuilder().append("Hi ").append(FIRST_NAME).append(", you are ").append(AGE)
+				.append(" years old and your balance is ").append(BALANCE).append('.').toString();
+	}
+
+}
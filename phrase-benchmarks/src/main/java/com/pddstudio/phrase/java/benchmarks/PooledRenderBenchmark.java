@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.benchmarks;
+
+import com.pddstudio.phrase.java.PhraseTemplate;
+import com.pddstudio.phrase.java.RenderBufferPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a template to a String with a new buffer per render and with a buffer borrowed from a
+ * {@link RenderBufferPool}. Run with {@code -prof gc} to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class PooledRenderBenchmark {
+
+	private final PhraseTemplate template = PhraseTemplate.compile(
+			"Dear {first_name} {last_name}, your order #{order} of {amount} items totalling {total} ships in {days} days.");
+	private final RenderBufferPool pool = RenderBufferPool.shared();
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		PhraseTemplate.Bindings bindings;
+		long order;
+	}
+
+	private PhraseTemplate.Bindings bindings(ThreadState state) {
+		if (state.bindings == null) {
+			state.bindings = template.newBindings().put("first_name", "Jane").put("last_name", "Doe")
+					.put("amount", 3).put("total", 129.95).put("days", 2);
+		}
+		return state.bindings.put("order", 4000000000L + state.order++);
+	}
+
+	@Benchmark
+	public String newBuffer(ThreadState state) {
+		return template.formatString(bindings(state));
+	}
+
+	@Benchmark
+	public String pooledString(ThreadState state) {
+		return template.formatString(bindings(state), pool);
+	}
+
+	@Benchmark
+	public void pooledText(ThreadState state, Blackhole blackhole) {
+		try (RenderBufferPool.Text text = template.formatPooled(bindings(state), pool)) {
+			blackhole.consume(text.charAt(text.length() - 1));
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.benchmarks;
+
+import com.pddstudio.phrase.java.PhraseTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares rendering by walking the segments of a template with the renderer generated by
+ * {@link PhraseTemplate#specialize()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpecializedRenderBenchmark {
+
+	/** The number of keys in the pattern; every key is surrounded by literal text. */
+	@Param({ "4", "16", "48" })
+	public int keys;
+
+	private PhraseTemplate interpreted;
+	private PhraseTemplate specialized;
+	private PhraseTemplate.Bindings interpretedBindings;
+	private PhraseTemplate.Bindings specializedBindings;
+
+	@Setup
+	public void setUp() {
+		StringBuilder pattern = new StringBuilder();
+		for (int i = 0; i < keys; i++) {
+			pattern.append("Field ").append(i).append(": {key_").append((char) ('a' + i / 26)).append((char) ('a' + i % 26)).append("}; ");
+		}
+		interpreted = PhraseTemplate.compile(pattern);
+		specialized = PhraseTemplate.compile(pattern).specialize();
+		if (!specialized.isSpecialized()) {
+			throw new IllegalStateException("Renderer generation is not available");
+		}
+		interpretedBindings = bind(interpreted);
+		specializedBindings = bind(specialized);
+	}
+
+	private static PhraseTemplate.Bindings bind(PhraseTemplate template) {
+		PhraseTemplate.Bindings bindings = template.newBindings();
+		int i = 0;
+		for (String key : template.getKeys()) {
+			if (i++ % 2 == 0) {
+				bindings.put(key, "value " + key);
+			} else {
+				bindings.put(key, i * 1000L);
+			}
+		}
+		return bindings;
+	}
+
+	@Benchmark
+	public CharSequence interpreted() {
+		return interpreted.format(interpretedBindings);
+	}
+
+	@Benchmark
+	public CharSequence specialized() {
+		return specialized.format(specializedBindings);
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.benchmarks;
+
+import com.pddstudio.phrase.java.commons.tag.Tag;
+import com.pddstudio.phrase.java.commons.tag.TagFinder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TagFinder#execute()} over inputs of different sizes holding different numbers of tag
+ * types, next to a hand-written {@link String#indexOf} scan collecting the same results. Reports
+ * throughput and latency percentiles; run with {@code -prof gc} for the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagFinderBenchmark {
+
+	/** The approximate length of the input in characters. */
+	@Param({ "1024", "65536" })
+	public int inputLength;
+
+	/** The number of different tags searched for. */
+	@Param({ "1", "8" })
+	public int tagCount;
+
+	private String input;
+	private Tag[] tags;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		tags = new Tag[tagCount];
+		for (int i = 0; i < tagCount; i++) {
+			tags[i] = new Tag("tag" + i, "<t" + i + ">", "</t" + i + ">");
+		}
+		StringBuilder sb = new StringBuilder(inputLength + 64);
+		int i = 0;
+		while (sb.length() < inputLength) {
+			Tag tag = tags[i % tagCount];
+			sb.append("Some text between the tags, number ").append(i).append(". ")
+					.append(tag.getStartTag()).append("value ").append(i).append(tag.getEndTag()).append(' ');
+			i++;
+		}
+		input = sb.toString();
+	}
+
+	@Benchmark
+	public TagFinder execute() {
+		TagFinder finder = TagFinder.in(input).find(tags);
+		finder.execute();
+		return finder;
+	}
+
+	@Benchmark
+	public int baselineIndexOf() {
+		int found = 0;
+		for (Tag tag : tags) {
+			String start = tag.getStartTag().toString();
+			String end = tag.getEndTag().toString();
+			int from = 0;
+			int startIndex;
+			while ((startIndex = input.indexOf(start, from)) >= 0) {
+				int endIndex = input.indexOf(end, startIndex + start.length());
+				if (endIndex < 0) {
+					break;
+				}
+				found += input.substring(startIndex + start.length(), endIndex).length();
+				from = endIndex + end.length();
+			}
+		}
+		return found;
+	}
+
+}
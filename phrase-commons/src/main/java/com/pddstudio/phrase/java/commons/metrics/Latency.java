@@ -0,0 +1,56 @@
+package com.pddstudio.phrase.java.commons.metrics;
+
+/**
+ * The latencies recorded by a {@link LatencyHistogram} at the time of its snapshot.
+ */
+public final class Latency {
+
+	private final long[] buckets;
+	private final long count;
+	private final long totalNanos;
+
+	Latency(long[] buckets, long totalNanos) {
+		this.buckets = buckets;
+		long count = 0;
+		for(long bucket : buckets) {
+			count += bucket;
+		}
+		this.count = count;
+		this.totalNanos = totalNanos;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	public double getMeanNanos() {
+		return count == 0 ? 0.0 : (double) totalNanos / count;
+	}
+
+	/**
+	 * Returns an upper bound of the given percentile (0 to 100) in nanoseconds; recorded
+	 * latencies are rounded up to the next power of two.
+	 */
+	public long getPercentileNanos(double percentile) {
+		long rank = (long) Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+		for(int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+			if(seen >= rank && seen > 0) {
+				return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + (long) getMeanNanos() + "ns, p50<=" + getPercentileNanos(50)
+				+ "ns, p99<=" + getPercentileNanos(99) + "ns";
+	}
+
+}
@@ -0,0 +1,29 @@
+package com.pddstudio.phrase.java.commons.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets of powers of two nanoseconds. Recording takes two atomic increments
+ * and no locks.
+ */
+public final class LatencyHistogram {
+
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0) | 1) - 1);
+		totalNanos.addAndGet(nanos);
+	}
+
+	/** Returns the latencies recorded so far. */
+	public Latency snapshot() {
+		long[] counts = new long[buckets.length()];
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return new Latency(counts, totalNanos.get());
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.pddstudio.phrase.java.commons.metrics;
+
+/**
+ * Receives the timings of every tag scan done by the {@link com.pddstudio.phrase.java.commons.tag.TagFinder}.
+ * Does nothing by default; until an implementation such as {@link TagMetricsRegistry} is installed
+ * the scans don't even read the clock. Methods are called on the scanning threads and must be
+ * thread-safe and cheap.
+ */
+public abstract class TagMetrics {
+
+	/** Records nothing; installed by default. */
+	public static final TagMetrics NOOP = new TagMetrics() {
+	};
+
+	private static volatile TagMetrics installed = NOOP;
+
+	/** Installs the metrics all tag scans report to; pass {@link #NOOP} to stop recording. */
+	public static void install(TagMetrics metrics) {
+		if(metrics == null) {
+			throw new IllegalArgumentException("Null metrics");
+		}
+		installed = metrics;
+	}
+
+	/** Returns the metrics all tag scans report to. */
+	public static TagMetrics installed() {
+		return installed;
+	}
+
+	/**
+	 * Called after the input has been scanned for a single tag.
+	 *
+	 * @param matches the number of values found between start and end tags.
+	 * @param inputLength the length of the scanned input in chars.
+	 */
+	public void tagScanned(CharSequence tagName, long nanos, int matches, int inputLength) {
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.pddstudio.phrase.java.commons.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link TagMetrics} which keep counters and a latency histogram per tag name in memory and hand
+ * out snapshots of them. Latencies are counted in a {@link LatencyHistogram}.
+ */
+public final class TagMetricsRegistry extends TagMetrics {
+
+	private final ConcurrentMap<String, TagCounters> tags = new ConcurrentHashMap<>();
+
+	@Override
+	public void tagScanned(CharSequence tagName, long nanos, int matches, int inputLength) {
+		String name = String.valueOf(tagName);
+		TagCounters counters = tags.get(name);
+		if(counters == null) {
+			counters = new TagCounters();
+			TagCounters raced = tags.putIfAbsent(name, counters);
+			if(raced != null) {
+				counters = raced;
+			}
+		}
+		counters.latency.record(nanos);
+		counters.matches.addAndGet(matches);
+		counters.charsScanned.addAndGet(inputLength);
+	}
+
+	/** Returns a snapshot of every tag, sorted by name. */
+	public Map<String, Snapshot> snapshot() {
+		Map<String, Snapshot> snapshot = new TreeMap<>();
+		for(Map.Entry<String, TagCounters> entry : tags.entrySet()) {
+			TagCounters counters = entry.getValue();
+			snapshot.put(entry.getKey(), new Snapshot(counters.latency.snapshot(), counters.matches.get(), counters.charsScanned.get()));
+		}
+		return snapshot;
+	}
+
+	/** Writes a snapshot of every tag, one line each. */
+	public void dump(Appendable target) throws IOException {
+		for(Map.Entry<String, Snapshot> entry : snapshot().entrySet()) {
+			target.append(entry.getKey()).append(": ").append(entry.getValue().toString()).append('\n');
+		}
+	}
+
+	/** Forgets everything recorded so far. */
+	public void clear() {
+		tags.clear();
+	}
+
+	private static final class TagCounters {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong matches = new AtomicLong();
+		final AtomicLong charsScanned = new AtomicLong();
+	}
+
+	/** The counters of a single tag at the time of the snapshot. */
+	public static final class Snapshot {
+
+		private final Latency latency;
+		private final long matches;
+		private final long charsScanned;
+
+		Snapshot(Latency latency, long matches, long charsScanned) {
+			this.latency = latency;
+			this.matches = matches;
+			this.charsScanned = charsScanned;
+		}
+
+		/** Returns the latency of the scans. */
+		public Latency getLatency() {
+			return latency;
+		}
+
+		public long getScans() {
+			return latency.getCount();
+		}
+
+		public long getTotalNanos() {
+			return latency.getTotalNanos();
+		}
+
+		public long getMatches() {
+			return matches;
+		}
+
+		public long getCharsScanned() {
+			return charsScanned;
+		}
+
+		/** @see Latency#getPercentileNanos(double) */
+		public long getPercentileNanos(double percentile) {
+			return latency.getPercentileNanos(percentile);
+		}
+
+		@Override
+		public String toString() {
+			return "scans=" + latency.getCount() + ", mean=" + (long) latency.getMeanNanos() + "ns, p50<=" + getPercentileNanos(50)
+					+ "ns, p99<=" + getPercentileNanos(99) + "ns, matches=" + matches + ", charsScanned=" + charsScanned;
+		}
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.pddstudio.phrase.java.commons.tag;
 
 import com.pddstudio.phrase.java.commons.log.Logger;
+import com.pddstudio.phrase.java.commons.metrics.TagMetrics;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -28,7 +29,14 @@ public class TagProcessor {
 	public TagResult execute(CharSequence target) {
 		logger.log("execute() called => target : %s", target);
 		this.target = target;
-		findTagContent();
+		TagMetrics metrics = TagMetrics.installed();
+		if(metrics == TagMetrics.NOOP) {
+			findTagContent();
+		} else {
+			long start = System.nanoTime();
+			findTagContent();
+			metrics.tagScanned(tag.getTagName(), System.nanoTime() - start, tagResult.getResultCount(), target.length());
+		}
 		return tagResult;
 	}
 
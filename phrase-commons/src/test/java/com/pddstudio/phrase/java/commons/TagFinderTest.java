@@ -1,5 +1,7 @@
 package com.pddstudio.phrase.java.commons;
 
+import com.pddstudio.phrase.java.commons.metrics.TagMetrics;
+import com.pddstudio.phrase.java.commons.metrics.TagMetricsRegistry;
 import com.pddstudio.phrase.java.commons.tag.Tag;
 import com.pddstudio.phrase.java.commons.tag.TagResult;
 import com.pddstudio.phrase.java.commons.tag.TagFinder;
@@ -29,4 +31,22 @@ public class TagFinderTest extends BaseUtilityTest {
 		assertEquals(result.getResults().get(0), "String");
 	}
 
+	@Test
+	public void tagMetricsTest() {
+		TagMetricsRegistry registry = new TagMetricsRegistry();
+		TagMetrics.install(registry);
+		try {
+			String targetString = "<name>first</name> and <name>second</name>";
+			Tag nameTag = new Tag("nameTag", "<name>", "</name>");
+			TagFinder.in(targetString).find(nameTag).execute();
+
+			TagMetricsRegistry.Snapshot snapshot = registry.snapshot().get("nameTag");
+			assertEquals(1, snapshot.getScans());
+			assertEquals(2, snapshot.getMatches());
+			assertEquals(targetString.length(), snapshot.getCharsScanned());
+		} finally {
+			TagMetrics.install(TagMetrics.NOOP);
+		}
+	}
+
 }
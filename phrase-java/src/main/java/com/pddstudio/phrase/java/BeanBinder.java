@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+/**
+ * Reads the values of the keys of a template from the objects of a single class: a JavaBean, a
+ * record, or any class with accessor methods or public fields. A key names a property in snake
+ * case, e.g. "first_name" is read by {@code getFirstName()}, {@code isFirstName()},
+ * {@code firstName()} or the field {@code firstName}; a dotted key such as "user.first_name"
+ * reads a property of a property. Properties of type {@link Map} are read by key, as are the
+ * maps they hold; properties of type {@link Object} are read by the class of their value.
+ * <p>
+ * Accessors are looked up by reflection once per template and class, and every key path is
+ * composed into a {@link MethodHandle} reading the object owning the last property of the path
+ * and one reading that property; binding an object afterwards only invokes those. Properties of
+ * primitive types are bound without boxing, unless read through a value of type Object.
+ */
+final class BeanBinder {
+
+	/** How the value of a key is read and bound. */
+	private static final byte NONE = 0;
+	private static final byte OBJECT = 1;
+	private static final byte LONG = 2;
+	private static final byte DOUBLE = 3;
+	private static final byte FLOAT = 4;
+	private static final byte BOOLEAN = 5;
+
+	private static final MethodType OBJECT_ACCESSOR = MethodType.methodType(Object.class, Object.class);
+
+	/** {@code (Object, String)Object}: looks up a key in a map, or returns null for anything else. */
+	private static final MethodHandle MAP_GET;
+
+	/** {@code (Object)boolean}: whether the argument is null. */
+	private static final MethodHandle IS_NULL;
+
+	/** {@code (Object)Object}: returns null. */
+	private static final MethodHandle NULL;
+
+	static {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		try {
+			MAP_GET = lookup.findStatic(BeanBinder.class, "mapGet", MethodType.methodType(Object.class, Object.class, String.class));
+			IS_NULL = lookup.findStatic(BeanBinder.class, "isNull", MethodType.methodType(boolean.class, Object.class));
+		} catch (ReflectiveOperationException e) {
+			throw new AssertionError(e);
+		}
+		NULL = MethodHandles.dropArguments(MethodHandles.constant(Object.class, null), 0, Object.class);
+	}
+
+	private final Class<?> type;
+	private final PhraseTemplate.Slot[] slots;
+
+	/**
+	 * The composed accessor of the object owning the last property of the path of every slot,
+	 * typed {@code (Object)Object} and null-safe, or null if the bound object itself owns it.
+	 */
+	private final MethodHandle[] owners;
+
+	/** The accessor of the last property of every slot, typed {@code (Object)} and the type of its kind. */
+	private final MethodHandle[] accessors;
+	private final byte[] kinds;
+
+	BeanBinder(Class<?> type, PhraseTemplate.Slot[] slots) {
+		this.type = type;
+		this.slots = slots;
+		this.owners = new MethodHandle[slots.length];
+		this.accessors = new MethodHandle[slots.length];
+		this.kinds = new byte[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			resolve(i, slots[i].getKey().split("\\."));
+		}
+	}
+
+	/** Puts the value of every key this class has a property for; null values unbind their keys. */
+	void bind(Object bean, PhraseTemplate.Bindings bindings) {
+		for (int i = 0; i < accessors.length; i++) {
+			if (kinds[i] == NONE) {
+				continue;
+			}
+			MethodHandle accessor = accessors[i];
+			PhraseTemplate.Slot slot = slots[i];
+			try {
+				Object owner = bean;
+				if (owners[i] != null) {
+					owner = (Object) owners[i].invokeExact(bean);
+					if (owner == null) {
+						bindings.putValue(slot, null);
+						continue;
+					}
+				}
+				switch (kinds[i]) {
+					case LONG:
+						bindings.put(slot, (long) accessor.invokeExact(owner));
+						break;
+					case DOUBLE:
+						bindings.put(slot, (double) accessor.invokeExact(owner));
+						break;
+					case FLOAT:
+						bindings.put(slot, (float) accessor.invokeExact(owner));
+						break;
+					case BOOLEAN:
+						bindings.put(slot, (boolean) accessor.invokeExact(owner));
+						break;
+					default:
+						bindings.putValue(slot, (Object) accessor.invokeExact(owner));
+						break;
+				}
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new IllegalArgumentException("Cannot read '" + slot.getKey() + "' of " + type.getName(), t);
+			}
+		}
+	}
+
+	/** Composes the accessors of the given slot from the accessors of the properties on its path. */
+	private void resolve(int index, String[] path) {
+		MethodHandle owner = null;
+		MethodHandle accessor = null;
+		Class<?> current = type;
+		for (String name : path) {
+			MethodHandle step;
+			if (Map.class.isAssignableFrom(current)) {
+				step = MethodHandles.insertArguments(MAP_GET, 1, name);
+			} else if (current == Object.class) {
+				step = new DynamicProperty(name).handle();
+			} else {
+				step = property(current, name);
+				if (step == null) {
+					return;
+				}
+			}
+			current = step.type().returnType();
+			if (accessor != null) {
+				// A property on the path may be null; so is the owner of the next one then.
+				MethodHandle next = MethodHandles.guardWithTest(IS_NULL, NULL, accessor.asType(OBJECT_ACCESSOR));
+				owner = owner == null ? accessor.asType(OBJECT_ACCESSOR) : MethodHandles.filterReturnValue(owner, next);
+			}
+			accessor = step;
+		}
+		Class<?> valueType = accessor.type().returnType();
+		byte kind = OBJECT;
+		if (valueType == long.class || valueType == int.class || valueType == short.class || valueType == byte.class) {
+			valueType = long.class;
+			kind = LONG;
+		} else if (valueType == double.class) {
+			kind = DOUBLE;
+		} else if (valueType == float.class) {
+			kind = FLOAT;
+		} else if (valueType == boolean.class) {
+			kind = BOOLEAN;
+		} else {
+			valueType = Object.class;
+		}
+		owners[index] = owner;
+		accessors[index] = accessor.asType(MethodType.methodType(valueType, Object.class));
+		kinds[index] = kind;
+	}
+
+	/** Returns an accessor of type {@code (Object)} and the type of the property, or null if there is none. */
+	private static MethodHandle property(Class<?> type, String name) {
+		String camelCase = camelCase(name);
+		String capitalized = Character.toUpperCase(camelCase.charAt(0)) + camelCase.substring(1);
+		String[] methodNames = { "get" + capitalized, "is" + capitalized, camelCase, name };
+		for (int i = 0; i < methodNames.length; i++) {
+			Method method;
+			try {
+				method = type.getMethod(methodNames[i]);
+			} catch (NoSuchMethodException e) {
+				continue;
+			}
+			Class<?> returnType = method.getReturnType();
+			if (returnType == void.class || method.getDeclaringClass() == Object.class
+					|| (i == 1 && returnType != boolean.class && returnType != Boolean.class)) {
+				continue;
+			}
+			MethodHandle accessor = unreflect(method);
+			if (accessor != null) {
+				return accessor.asType(MethodType.methodType(returnType, Object.class));
+			}
+		}
+		for (String fieldName : new String[] { camelCase, name }) {
+			Field field;
+			try {
+				field = type.getField(fieldName);
+			} catch (NoSuchFieldException e) {
+				continue;
+			}
+			MethodHandle accessor = unreflect(field);
+			if (accessor != null) {
+				return accessor.asType(MethodType.methodType(field.getType(), Object.class));
+			}
+		}
+		return null;
+	}
+
+	/** Returns a handle for the given public instance method or field, or null if it can't be accessed. */
+	private static MethodHandle unreflect(Member member) {
+		if (Modifier.isStatic(member.getModifiers())) {
+			return null;
+		}
+		try {
+			// Public members of classes which are not public themselves, e.g. nested in a private class.
+			if (!Modifier.isPublic(member.getDeclaringClass().getModifiers())) {
+				((AccessibleObject) member).setAccessible(true);
+			}
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			return member instanceof Method ? lookup.unreflect((Method) member) : lookup.unreflectGetter((Field) member);
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// The module of the class does not open it.
+			return null;
+		}
+	}
+
+	/** Returns the given snake case name in camel case: "first_name" becomes "firstName". */
+	private static String camelCase(String name) {
+		StringBuilder camelCase = new StringBuilder(name.length());
+		boolean upper = false;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '_' && camelCase.length() > 0) {
+				upper = true;
+			} else {
+				camelCase.append(upper ? Character.toUpperCase(c) : c);
+				upper = false;
+			}
+		}
+		return camelCase.length() > 0 ? camelCase.toString() : name;
+	}
+
+	/**
+	 * Reads a property of values declared as {@link Object} by the class of the value: a map by
+	 * key, anything else by the accessor of its class, which is looked up on first use. A value
+	 * without the property reads as null, like a map without the key.
+	 */
+	private static final class DynamicProperty {
+
+		private static final MethodHandle GET;
+
+		static {
+			try {
+				GET = MethodHandles.lookup().findVirtual(DynamicProperty.class, "get", OBJECT_ACCESSOR);
+			} catch (ReflectiveOperationException e) {
+				throw new AssertionError(e);
+			}
+		}
+
+		private final String name;
+
+		/** The accessors of the classes read, or {@link #NULL} for classes without the property. */
+		private final ClassCache<MethodHandle> accessors = new ClassCache<MethodHandle>() {
+			@Override
+			MethodHandle compute(Class<?> type) {
+				MethodHandle handle = property(type, name);
+				return handle != null ? handle.asType(OBJECT_ACCESSOR) : NULL;
+			}
+		};
+
+		DynamicProperty(String name) {
+			this.name = name;
+		}
+
+		/** Returns a handle of the type {@code (Object)Object} reading the property. */
+		MethodHandle handle() {
+			return GET.bindTo(this);
+		}
+
+		private Object get(Object value) throws Throwable {
+			if (value == null || value instanceof Map) {
+				return mapGet(value, name);
+			}
+			return (Object) accessors.get(value.getClass()).invokeExact(value);
+		}
+	}
+
+	private static Object mapGet(Object map, String key) {
+		return map instanceof Map ? ((Map<?, ?>) map).get(key) : null;
+	}
+
+	private static boolean isNull(Object value) {
+		return value == null;
+	}
+
+}
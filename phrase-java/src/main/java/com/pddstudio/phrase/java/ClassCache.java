@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Values computed once per class, such as the accessors of its properties, which don't keep the
+ * class from being unloaded: classes are held weakly and their values softly, since the values
+ * usually refer back to their class. The value of the class looked up last is found without
+ * taking a lock.
+ */
+abstract class ClassCache<V> {
+
+	private final Map<Class<?>, Reference<Entry<V>>> entries = new WeakHashMap<Class<?>, Reference<Entry<V>>>();
+
+	/** The entry of the class looked up last. */
+	private volatile Reference<Entry<V>> last;
+
+	/** Computes the value of the given class; called without holding a lock. */
+	abstract V compute(Class<?> type);
+
+	/** Returns the value of the given class, computing it if it isn't cached. */
+	final V get(Class<?> type) {
+		Reference<Entry<V>> reference = last;
+		Entry<V> entry = reference != null ? reference.get() : null;
+		if (entry != null && entry.type == type) {
+			return entry.value;
+		}
+		synchronized (entries) {
+			reference = entries.get(type);
+		}
+		entry = reference != null ? reference.get() : null;
+		if (entry == null) {
+			// Racing threads may each compute the value; the first one to be cached wins.
+			Entry<V> computed = new Entry<V>(type, compute(type));
+			synchronized (entries) {
+				reference = entries.get(type);
+				entry = reference != null ? reference.get() : null;
+				if (entry == null) {
+					entry = computed;
+					reference = new SoftReference<Entry<V>>(entry);
+					entries.put(type, reference);
+				}
+			}
+		}
+		last = reference;
+		return entry.value;
+	}
+
+	private static final class Entry<V> {
+		final Class<?> type;
+		final V value;
+
+		Entry(Class<?> type, V value) {
+			this.type = type;
+			this.value = value;
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import com.pddstudio.phrase.java.Phrase.KeyIdentifier;
+
+/**
+ * The strings which open and close the keys of a pattern, such as {@code "${"} and {@code "}"},
+ * and the escape which stands for a literal open delimiter. Canonical usage:
+ * <pre>
+ *   Delimiters dollar = Delimiters.of("${", "}");
+ *   PhraseTemplate template = PhraseTemplate.compile("${name} owes $${amount}", dollar);
+ * </pre>
+ * Unless given, the escape is the open delimiter preceded by its first character, e.g.
+ * {@code "$${"} for {@code "${"}, {@code "%%"} for {@code "%"} and {@code "{{"} for
+ * {@code "{"}, the escape of the single character {@link KeyIdentifier}s. A close delimiter
+ * outside of a construct is literal text.
+ * <p>
+ * The lexer skips text by searching for the first character of the open delimiter with
+ * {@link String#indexOf(int, int)}, which the JIT turns into a vectorized scan, and only then
+ * compares the whole delimiter; patterns with multi-character delimiters are parsed as fast as
+ * those with a single character. Escapes must therefore start with that character too.
+ * <p>
+ * Delimiters are immutable and compared by value.
+ */
+public final class Delimiters {
+
+	private final String open;
+	private final String close;
+
+	/** The escape for a literal open delimiter, or null if there is none. */
+	private final String escape;
+
+	/** The offset of the open delimiter in the escape; that slice of the pattern is its text. */
+	private final int escapedOpenOffset;
+
+	/** The key identifier these are the delimiters of, or null for any other delimiters. */
+	private final KeyIdentifier keyIdentifier;
+
+	/**
+	 * Returns delimiters with the default escape, the open delimiter preceded by its first
+	 * character.
+	 *
+	 * @throws IllegalArgumentException if a delimiter is empty, or the close delimiter starts with
+	 * a character of keys, a comma or whitespace.
+	 */
+	public static Delimiters of(String open, String close) {
+		return of(open, close, open.isEmpty() ? null : open.charAt(0) + open);
+	}
+
+	/**
+	 * Returns delimiters with the given escape for a literal open delimiter, which may be null to
+	 * have no escape at all.
+	 *
+	 * @throws IllegalArgumentException if a delimiter is empty, the close delimiter starts with a
+	 * character of keys, a comma or whitespace, or the escape does not start with the first
+	 * character of the open delimiter and contain the open delimiter.
+	 */
+	public static Delimiters of(String open, String close, String escape) {
+		for (KeyIdentifier keyIdentifier : KeyIdentifier.values()) {
+			Delimiters delimiters = keyIdentifier.getDelimiters();
+			if (delimiters.open.equals(open) && delimiters.close.equals(close)
+					&& (escape == null ? delimiters.escape == null : escape.equals(delimiters.escape))) {
+				return delimiters;
+			}
+		}
+		return new Delimiters(open, close, escape, null);
+	}
+
+	/** Creates the delimiters of a key identifier; called while the enum is initialized. */
+	Delimiters(String open, String close, String escape, KeyIdentifier keyIdentifier) {
+		if (open.isEmpty() || close.isEmpty()) {
+			throw new IllegalArgumentException("Empty delimiter");
+		}
+		if (open.indexOf(0) >= 0 || close.indexOf(0) >= 0) {
+			throw new IllegalArgumentException("Delimiters must not contain NUL characters");
+		}
+		char first = close.charAt(0);
+		if ((first >= 'a' && first <= 'z') || first == '_' || first == ',' || Character.isWhitespace(first)) {
+			throw new IllegalArgumentException("Invalid close delimiter '" + close + "'");
+		}
+		if (escape != null && (escape.equals(open) || escape.charAt(0) != open.charAt(0) || escape.indexOf(open) < 0)) {
+			throw new IllegalArgumentException("Invalid escape '" + escape + "' for open delimiter '" + open + "'");
+		}
+		this.open = open;
+		this.close = close;
+		this.escape = escape;
+		this.escapedOpenOffset = escape != null ? escape.indexOf(open) : -1;
+		this.keyIdentifier = keyIdentifier;
+	}
+
+	public String getOpen() {
+		return open;
+	}
+
+	public String getClose() {
+		return close;
+	}
+
+	/** Returns the escape for a literal open delimiter, or null if there is none. */
+	public String getEscape() {
+		return escape;
+	}
+
+	/** Returns the key identifier these are the delimiters of, or null for any other delimiters. */
+	public KeyIdentifier getKeyIdentifier() {
+		return keyIdentifier;
+	}
+
+	int getEscapedOpenOffset() {
+		return escapedOpenOffset;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o instanceof Delimiters) {
+			Delimiters delimiters = (Delimiters) o;
+			return open.equals(delimiters.open) && close.equals(delimiters.close)
+					&& (escape == null ? delimiters.escape == null : escape.equals(delimiters.escape));
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * open.hashCode() + close.hashCode()) + (escape == null ? 0 : escape.hashCode());
+	}
+
+	@Override
+	public String toString() {
+		return open + "..." + close;
+	}
+
+}
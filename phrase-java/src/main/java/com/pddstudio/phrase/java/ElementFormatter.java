@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+/**
+ * Formats the elements of arrays and collections joined into a key, see
+ * {@link Phrase#putArray(String, Object[], String, ElementFormatter)}. Elements are written
+ * straight into the output; primitive elements are passed unboxed.
+ * <p>
+ * Every method appends the plain {@link String#valueOf} representation by default, so
+ * subclasses only override the methods for the element types they care about. Formatters are
+ * called while rendering and must be thread-safe if the bound values are rendered concurrently.
+ */
+public abstract class ElementFormatter<T> {
+
+	/** Appends the given element of an object array or collection. */
+	public void format(StringBuilder target, T element) {
+		if (element instanceof CharSequence) {
+			target.append((CharSequence) element);
+		} else {
+			target.append(element);
+		}
+	}
+
+	/** Appends the given element of an {@code int[]} or {@code long[]}. */
+	public void format(StringBuilder target, long element) {
+		target.append(element);
+	}
+
+	/** Appends the given element of a {@code double[]}. */
+	public void format(StringBuilder target, double element) {
+		target.append(element);
+	}
+
+	/** Appends the given element of a {@code float[]}. */
+	public void format(StringBuilder target, float element) {
+		target.append(element);
+	}
+
+	/** Appends the given element of a {@code boolean[]}. */
+	public void format(StringBuilder target, boolean element) {
+		target.append(element);
+	}
+
+}
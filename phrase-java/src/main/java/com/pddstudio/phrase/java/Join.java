@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A value which joins the elements of an array or {@link Iterable} with a separator. The
+ * elements are written straight into the output of a render, so primitives are never boxed and no
+ * joined String is created up front.
+ * <p>
+ * A join keeps a reference to the array or collection it was created for, so changes made to it
+ * before the next render are visible in the output.
+ */
+abstract class Join {
+
+	static final String DEFAULT_SEPARATOR = " ";
+
+	/** Assumed length of an element whose length can't be known without formatting it. */
+	private static final int ELEMENT_LENGTH_ESTIMATE = 8;
+
+	final String separator;
+	final ElementFormatter<Object> formatter;
+
+	@SuppressWarnings("unchecked")
+	Join(String separator, ElementFormatter<?> formatter) {
+		this.separator = (separator == null || separator.length() == 0) ? DEFAULT_SEPARATOR : separator;
+		this.formatter = (ElementFormatter<Object>) formatter;
+	}
+
+	static Join of(int[] values, String separator, ElementFormatter<?> formatter) {
+		return new IntJoin(values, separator, formatter);
+	}
+
+	static Join of(long[] values, String separator, ElementFormatter<?> formatter) {
+		return new LongJoin(values, separator, formatter);
+	}
+
+	static Join of(boolean[] values, String separator, ElementFormatter<?> formatter) {
+		return new BooleanJoin(values, separator, formatter);
+	}
+
+	static Join of(float[] values, String separator, ElementFormatter<?> formatter) {
+		return new FloatJoin(values, separator, formatter);
+	}
+
+	static Join of(double[] values, String separator, ElementFormatter<?> formatter) {
+		return new DoubleJoin(values, separator, formatter);
+	}
+
+	static <T> Join of(T[] values, String separator, ElementFormatter<? super T> formatter) {
+		return new ArrayJoin(values, separator, formatter);
+	}
+
+	static <T> Join of(Iterable<T> values, String separator, ElementFormatter<? super T> formatter) {
+		return new IterableJoin(values, separator, formatter);
+	}
+
+	/** Returns the length of the joined elements, or an estimate if it isn't known. */
+	abstract int length();
+
+	abstract void appendTo(StringBuilder target);
+
+	abstract void writeTo(Output output) throws IOException;
+
+	/** Joins the elements of an array, which are read by index. */
+	private abstract static class IndexedJoin extends Join {
+
+		IndexedJoin(String separator, ElementFormatter<?> formatter) {
+			super(separator, formatter);
+		}
+
+		/** Returns the number of elements. */
+		abstract int size();
+
+		/** Returns the length of the element at the given index, or an estimate of it. */
+		abstract int elementLength(int index);
+
+		/** Appends the element at the given index. */
+		abstract void appendElement(StringBuilder target, int index);
+
+		/** Writes the element at the given index; formats into the scratch buffer of the output. */
+		void writeElement(Output output, int index) throws IOException {
+			StringBuilder scratch = output.scratch();
+			appendElement(scratch, index);
+			output.appendScratch(scratch);
+		}
+
+		@Override
+		int length() {
+			int size = size();
+			if (size == 0) {
+				return 0;
+			}
+			int length = (size - 1) * separator.length();
+			if (formatter != null) {
+				return length + size * ELEMENT_LENGTH_ESTIMATE;
+			}
+			for (int i = 0; i < size; i++) {
+				length += elementLength(i);
+			}
+			return length;
+		}
+
+		@Override
+		void appendTo(StringBuilder target) {
+			int size = size();
+			for (int i = 0; i < size; i++) {
+				if (i > 0) {
+					target.append(separator);
+				}
+				appendElement(target, i);
+			}
+		}
+
+		@Override
+		void writeTo(Output output) throws IOException {
+			int size = size();
+			for (int i = 0; i < size; i++) {
+				if (i > 0) {
+					output.append(separator);
+				}
+				writeElement(output, i);
+			}
+		}
+	}
+
+	private static final class IntJoin extends IndexedJoin {
+		private final int[] values;
+
+		IntJoin(int[] values, String separator, ElementFormatter<?> formatter) {
+			super(separator, formatter);
+			this.values = values;
+		}
+
+		@Override
+		int size() {
+			return values.length;
+		}
+
+		@Override
+		int elementLength(int index) {
+			return Numbers.stringSize(values[index]);
+		}
+
+		@Override
+		void appendElement(StringBuilder target, int index) {
+			if (formatter == null) {
+				target.append(values[index]);
+			} else {
+				formatter.format(target, (long) values[index]);
+			}
+		}
+	}
+
+	private static final class LongJoin extends IndexedJoin {
+		private final long[] values;
+
+		LongJoin(long[] values, String separator, ElementFormatter<?> formatter) {
+			super(separator, formatter);
+			this.values = values;
+		}
+
+		@Override
+		int size() {
+			return values.length;
+		}
+
+		@Override
+		int elementLength(int index) {
+			return Numbers.stringSize(values[index]);
+		}
+
+		@Override
+		void appendElement(StringBuilder target, int index) {
+			if (formatter == null) {
+				target.append(values[index]);
+			} else {
+				formatter.format(target, values[index]);
+			}
+		}
+	}
+
+	private static final class BooleanJoin extends IndexedJoin {
+		private final boolean[] values;
+
+		BooleanJoin(boolean[] values, String separator, ElementFormatter<?> formatter) {
+			super(separator, formatter);
+			this.values = values;
+		}
+
+		@Override
+		int size() {
+			return values.length;
+		}
+
+		@Override
+		int elementLength(int index) {
+			return values[index] ? 4 : 5;
+		}
+
+		@Override
+		void appendElement(StringBuilder target, int index) {
+			if (formatter == null) {
+				target.append(values[index]);
+			} else {
+				formatter.format(target, values[index]);
+			}
+		}
+
+		@Override
+		void writeElement(Output output, int index) throws IOException {
+			if (formatter == null) {
+				output.append(values[index] ? "true" : "false");
+			} else {
+				super.writeElement(output, index);
+			}
+		}
+	}
+
+	private static final class FloatJoin extends IndexedJoin {
+		private final float[] values;
+
+		FloatJoin(float[] values, String separator, ElementFormatter<?> formatter) {
+			super(separator, formatter);
+			this.values = values;
+		}
+
+		@Override
+		int size() {
+			return values.length;
+		}
+
+		@Override
+		int elementLength(int index) {
+			return Numbers.MAX_FLOAT_LENGTH;
+		}
+
+		@Override
+		void appendElement(StringBuilder target, int index) {
+			if (formatter == null) {
+				target.append(values[index]);
+			} else {
+				formatter.format(target, values[index]);
+			}
+		}
+	}
+
+	private static final class DoubleJoin extends IndexedJoin {
+		private final double[] values;
+
+		DoubleJoin(double[] values, String separator, ElementFormatter<?> formatter) {
+			super(separator, formatter);
+			this.values = values;
+		}
+
+		@Override
+		int size() {
+			return values.length;
+		}
+
+		@Override
+		int elementLength(int index) {
+			return Numbers.MAX_DOUBLE_LENGTH;
+		}
+
+		@Override
+		void appendElement(StringBuilder target, int index) {
+			if (formatter == null) {
+				target.append(values[index]);
+			} else {
+				formatter.format(target, values[index]);
+			}
+		}
+	}
+
+	private static final class ArrayJoin extends IndexedJoin {
+		private final Object[] values;
+
+		ArrayJoin(Object[] values, String separator, ElementFormatter<?> formatter) {
+			super(separator, formatter);
+			this.values = values;
+		}
+
+		@Override
+		int size() {
+			return values.length;
+		}
+
+		@Override
+		int elementLength(int index) {
+			return Join.elementLength(values[index]);
+		}
+
+		@Override
+		void appendElement(StringBuilder target, int index) {
+			Join.appendElement(target, values[index], formatter);
+		}
+
+		@Override
+		void writeElement(Output output, int index) throws IOException {
+			Join.writeElement(output, values[index], formatter);
+		}
+	}
+
+	/** Joins the elements of an {@link Iterable}, which is iterated once per render. */
+	private static final class IterableJoin extends Join {
+		private final Iterable<?> values;
+
+		IterableJoin(Iterable<?> values, String separator, ElementFormatter<?> formatter) {
+			super(separator, formatter);
+			this.values = values;
+		}
+
+		/** Estimates the length of the elements of a collection; other iterables count as empty. */
+		@Override
+		int length() {
+			int size = values instanceof Collection ? ((Collection<?>) values).size() : 0;
+			return size == 0 ? 0 : (size - 1) * separator.length() + size * ELEMENT_LENGTH_ESTIMATE;
+		}
+
+		@Override
+		void appendTo(StringBuilder target) {
+			Iterator<?> iterator = values.iterator();
+			while (iterator.hasNext()) {
+				Join.appendElement(target, iterator.next(), formatter);
+				if (iterator.hasNext()) {
+					target.append(separator);
+				}
+			}
+		}
+
+		@Override
+		void writeTo(Output output) throws IOException {
+			Iterator<?> iterator = values.iterator();
+			while (iterator.hasNext()) {
+				Join.writeElement(output, iterator.next(), formatter);
+				if (iterator.hasNext()) {
+					output.append(separator);
+				}
+			}
+		}
+	}
+
+	private static int elementLength(Object element) {
+		return element instanceof CharSequence ? ((CharSequence) element).length() : ELEMENT_LENGTH_ESTIMATE;
+	}
+
+	private static void appendElement(StringBuilder target, Object element, ElementFormatter<Object> formatter) {
+		if (formatter != null) {
+			formatter.format(target, element);
+		} else if (element instanceof CharSequence) {
+			target.append((CharSequence) element);
+		} else {
+			target.append(element);
+		}
+	}
+
+	/** Writes an element; character sequences are written as they are, without copying them. */
+	private static void writeElement(Output output, Object element, ElementFormatter<Object> formatter) throws IOException {
+		if (formatter != null) {
+			StringBuilder scratch = output.scratch();
+			formatter.format(scratch, element);
+			output.appendScratch(scratch);
+		} else if (element instanceof CharSequence) {
+			output.append((CharSequence) element);
+		} else {
+			output.append(String.valueOf(element));
+		}
+	}
+
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * The format of a number construct of a {@link PhraseTemplate}, e.g. "#,##0.00": the subset of
+ * the patterns of {@link java.text.DecimalFormat} made of '0' for required digits, '#' for
+ * optional digits, ',' for grouping, '.' for the fraction and a trailing '%'. Patterns are parsed,
+ * and the separators and signs of the locale looked up, once when the template is compiled. As in
+ * DecimalFormat, a '.' with no digits after it, as in "#.", is always written, and negative values
+ * and percentages take the prefix and suffix of the locale, including any bidi marks.
+ * <p>
+ * Numbers are rounded half-even with the same results as DecimalFormat, and their digits are
+ * written straight into the target, without a Formatter, DecimalFormat or String per value. Only
+ * values whose digits do not fit in a long, and fractions too close to a tie to be rounded in
+ * double arithmetic, go through {@link BigDecimal}.
+ */
+final class NumberPattern {
+
+	/** The most fraction digits a pattern may have; more than a double holds in most cases. */
+	static final int MAX_FRACTION_DIGITS = 15;
+
+	/** The powers of ten which fit in a long. */
+	private static final long[] POWERS_OF_TEN = new long[19];
+
+	/** Scaled doubles below this are rounded in double arithmetic; every integer up to it is exact. */
+	private static final double FAST_PATH_LIMIT = 1e15;
+
+	static {
+		long power = 1;
+		for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = power;
+			power *= 10;
+		}
+	}
+
+	private final int minIntegerDigits;
+	private final int minFractionDigits;
+	private final int maxFractionDigits;
+
+	/** The number of digits between grouping separators, or 0 for no grouping. */
+	private final int groupingSize;
+
+	/** Whether values are multiplied by 100 and followed by the percent sign. */
+	private final boolean percent;
+
+	/** Whether the decimal separator is written even if no fraction digits follow it. */
+	private final boolean decimalSeparatorAlwaysShown;
+
+	private final char zeroDigit;
+	private final char decimalSeparator;
+	private final char groupingSeparator;
+	private final String negativePrefix;
+
+	/** The percent sign of percentages, or "" for other patterns. */
+	private final String suffix;
+	private final String infinity;
+	private final String nan;
+
+	private NumberPattern(int minIntegerDigits, int minFractionDigits, int maxFractionDigits, int groupingSize,
+			boolean percent, boolean decimalSeparatorAlwaysShown, DecimalFormatSymbols symbols) {
+		this.minIntegerDigits = minIntegerDigits;
+		this.minFractionDigits = minFractionDigits;
+		this.maxFractionDigits = maxFractionDigits;
+		this.groupingSize = groupingSize;
+		this.percent = percent;
+		this.decimalSeparatorAlwaysShown = decimalSeparatorAlwaysShown;
+		this.zeroDigit = symbols.getZeroDigit();
+		this.decimalSeparator = symbols.getDecimalSeparator();
+		this.groupingSeparator = symbols.getGroupingSeparator();
+		// The symbols only hold the single chars; the full sign text of the locale, such as the
+		// minus sign with a bidi mark of Arabic, only shows in the affixes of a format.
+		DecimalFormat signs = new DecimalFormat(percent ? "0%" : "0", symbols);
+		this.negativePrefix = signs.getNegativePrefix();
+		this.suffix = signs.getPositiveSuffix();
+		this.infinity = symbols.getInfinity();
+		this.nan = symbols.getNaN();
+	}
+
+	/**
+	 * Parses the given pattern for the separators of the given locale. Besides patterns, the
+	 * names "integer" ("#,##0") and "percent" ("#,##0%") are accepted.
+	 *
+	 * @throws IllegalArgumentException if the pattern is not supported.
+	 */
+	static NumberPattern parse(String pattern, Locale locale) {
+		String format = pattern.trim();
+		if (format.equals("integer")) {
+			format = "#,##0";
+		} else if (format.equals("percent")) {
+			format = "#,##0%";
+		}
+		boolean percent = format.endsWith("%");
+		int end = percent ? format.length() - 1 : format.length();
+		int integerDigits = 0;
+		int minIntegerDigits = 0;
+		int minFractionDigits = 0;
+		int maxFractionDigits = 0;
+		int groupingSize = -1;
+		boolean fraction = false;
+		for (int i = 0; i < end; i++) {
+			char c = format.charAt(i);
+			if (c == '.' && !fraction) {
+				fraction = true;
+			} else if (c == ',' && !fraction) {
+				groupingSize = 0;
+			} else if (c == '0' && fraction && maxFractionDigits == minFractionDigits) {
+				minFractionDigits++;
+				maxFractionDigits++;
+			} else if (c == '#' && fraction) {
+				maxFractionDigits++;
+			} else if ((c == '0' || c == '#' && minIntegerDigits == 0) && !fraction) {
+				integerDigits++;
+				minIntegerDigits += c == '0' ? 1 : 0;
+				groupingSize += groupingSize >= 0 ? 1 : 0;
+			} else {
+				throw new IllegalArgumentException("Invalid number format '" + pattern.trim() + "'");
+			}
+		}
+		if (integerDigits + maxFractionDigits == 0 || groupingSize == 0) {
+			throw new IllegalArgumentException("Invalid number format '" + pattern.trim() + "'");
+		}
+		if (maxFractionDigits > MAX_FRACTION_DIGITS) {
+			throw new IllegalArgumentException("Too many fraction digits in number format '" + pattern.trim()
+					+ "'; at most " + MAX_FRACTION_DIGITS + " are supported");
+		}
+		// Like DecimalFormat, "#.##" and "#." have one integer digit, and ".##" one fraction digit.
+		if (minIntegerDigits == 0 && minFractionDigits == 0) {
+			if (fraction && integerDigits == 0) {
+				minFractionDigits = 1;
+			} else {
+				minIntegerDigits = 1;
+			}
+		}
+		boolean decimalSeparatorAlwaysShown = fraction && (integerDigits == 0 || maxFractionDigits == 0);
+		return new NumberPattern(minIntegerDigits, minFractionDigits, maxFractionDigits, Math.max(groupingSize, 0),
+				percent, decimalSeparatorAlwaysShown, DecimalFormatSymbols.getInstance(locale));
+	}
+
+	/** Returns an upper bound of the length of the given value when formatted. */
+	int maxLength(long value) {
+		return maxLength(Numbers.stringSize(value) + (percent ? 2 : 0));
+	}
+
+	/** Returns an upper bound of the length of the given value when formatted. */
+	int maxLength(double value) {
+		double magnitude = Math.abs(value);
+		if (magnitude != magnitude) {
+			return nan.length();
+		}
+		if (magnitude == Double.POSITIVE_INFINITY) {
+			return negativePrefix.length() + infinity.length() + suffix.length();
+		}
+		// One more than the decimal digits of the largest double with the same exponent.
+		int digits = magnitude < 1 ? 1 : (int) ((Math.getExponent(magnitude) + 1) * 0.30103) + 2;
+		return maxLength(1 + digits + (percent ? 2 : 0));
+	}
+
+	private int maxLength(int signAndDigits) {
+		int integerDigits = Math.max(signAndDigits, minIntegerDigits + 1);
+		int separators = groupingSize > 0 ? integerDigits / groupingSize : 0;
+		return negativePrefix.length() + integerDigits + separators + 1 + maxFractionDigits + suffix.length();
+	}
+
+	/** Appends the given value, formatted by this pattern, to {@code target}. */
+	void appendTo(StringBuilder target, long value) {
+		int scale = maxFractionDigits + (percent ? 2 : 0);
+		if (value != Long.MIN_VALUE && scale < POWERS_OF_TEN.length
+				&& Math.abs(value) < POWERS_OF_TEN[POWERS_OF_TEN.length - 1 - scale]) {
+			appendDigits(target, value < 0, Math.abs(value) * POWERS_OF_TEN[scale], null);
+		} else {
+			BigDecimal decimal = BigDecimal.valueOf(value).movePointRight(percent ? 2 : 0);
+			appendDigits(target, value < 0, 0, decimal.setScale(maxFractionDigits).unscaledValue().abs().toString());
+		}
+	}
+
+	/** Appends the given value, formatted by this pattern, to {@code target}. */
+	void appendTo(StringBuilder target, double value) {
+		if (value != value) {
+			target.append(nan);
+			return;
+		}
+		if (percent) {
+			value *= 100;
+		}
+		boolean negative = value < 0 || value == 0 && 1 / value < 0;
+		double magnitude = Math.abs(value);
+		if (magnitude == Double.POSITIVE_INFINITY) {
+			if (negative) {
+				target.append(negativePrefix);
+			}
+			target.append(infinity).append(suffix);
+			return;
+		}
+		double scaled = magnitude * POWERS_OF_TEN[maxFractionDigits];
+		if (scaled < FAST_PATH_LIMIT) {
+			double rounded = Math.rint(scaled);
+			// The product is off by at most half an ulp, which only matters next to a tie.
+			if (maxFractionDigits == 0 || Math.abs(Math.abs(scaled - rounded) - 0.5) > Math.ulp(scaled)) {
+				appendDigits(target, negative, (long) rounded, null);
+				return;
+			}
+		}
+		// Like DecimalFormat, round the digits of Double.toString and break their ties by the exact value.
+		BigDecimal shortest = BigDecimal.valueOf(magnitude);
+		int exact = new BigDecimal(magnitude).compareTo(shortest);
+		RoundingMode mode = exact > 0 ? RoundingMode.HALF_UP : exact < 0 ? RoundingMode.HALF_DOWN : RoundingMode.HALF_EVEN;
+		appendDigits(target, negative, 0, shortest.setScale(maxFractionDigits, mode).unscaledValue().toString());
+	}
+
+	/**
+	 * Appends a number given as its digits including {@link #maxFractionDigits} fraction digits,
+	 * either as a long or, if it does not fit in one, as a String. The characters are written
+	 * backwards into the grown target, so the digits of a long never need to be reversed.
+	 */
+	private void appendDigits(StringBuilder target, boolean negative, long units, String digits) {
+		int fractionDigits = maxFractionDigits;
+		int digitCount;
+		if (digits == null) {
+			while (fractionDigits > minFractionDigits && units % 10 == 0) {
+				units /= 10;
+				fractionDigits--;
+			}
+			digitCount = units == 0 ? 0 : Numbers.stringSize(units);
+		} else {
+			digitCount = digits.length();
+			while (fractionDigits > minFractionDigits && digits.charAt(digitCount - 1) == '0' && digitCount > 1) {
+				digitCount--;
+				fractionDigits--;
+			}
+			if (fractionDigits > minFractionDigits && digits.equals("0")) {
+				fractionDigits = minFractionDigits;
+			}
+		}
+		int integerDigits = Math.max(digitCount - fractionDigits, minIntegerDigits);
+		if (integerDigits == 0 && fractionDigits == 0) {
+			integerDigits = 1;
+		}
+
+		if (negative) {
+			target.append(negativePrefix);
+		}
+		int separators = groupingSize > 0 ? (integerDigits - 1) / groupingSize : 0;
+		boolean separatorShown = fractionDigits > 0 || decimalSeparatorAlwaysShown;
+		int index = target.length() + integerDigits + separators + (separatorShown ? 1 : 0) + fractionDigits;
+		target.setLength(index);
+		if (fractionDigits == 0 && separatorShown) {
+			target.setCharAt(--index, decimalSeparator);
+		}
+		int zeroOffset = zeroDigit - '0';
+		for (int position = 0; position < fractionDigits + integerDigits; position++) {
+			if (position == fractionDigits && position > 0) {
+				target.setCharAt(--index, decimalSeparator);
+			} else if (position > fractionDigits && groupingSize > 0 && (position - fractionDigits) % groupingSize == 0) {
+				target.setCharAt(--index, groupingSeparator);
+			}
+			char digit;
+			if (digits == null) {
+				digit = (char) ('0' + units % 10);
+				units /= 10;
+			} else {
+				digit = position < digitCount ? digits.charAt(digitCount - 1 - position) : '0';
+			}
+			target.setCharAt(--index, (char) (digit + zeroOffset));
+		}
+		if (integerDigits == 0) {
+			target.setCharAt(--index, decimalSeparator);
+		}
+		target.append(suffix);
+	}
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+/**
+ * Helpers for writing numbers without going through temporary Strings.
+ */
+final class Numbers {
+
+	/** The longest results of {@link Double#toString(double)} and {@link Float#toString(float)}. */
+	static final int MAX_DOUBLE_LENGTH = 24;
+	static final int MAX_FLOAT_LENGTH = 15;
+
+	private Numbers() {
+	}
+
+	/** Returns the number of characters of the decimal representation of the given long. */
+	static int stringSize(long value) {
+		if (value < 0) {
+			return value == Long.MIN_VALUE ? 20 : stringSize(-value) + 1;
+		}
+		long limit = 10;
+		for (int size = 1; size < 19; size++) {
+			if (value < limit) {
+				return size;
+			}
+			limit *= 10;
+		}
+		return 19;
+	}
+
+}
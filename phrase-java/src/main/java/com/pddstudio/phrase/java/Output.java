@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The sink a {@link PhraseTemplate} streams its slices and values into when it does not render
+ * into a {@link StringBuilder}. Implementations pick the cheapest call of the underlying sink for
+ * every kind of write, so that no intermediate copies are created. Numbers are converted in a
+ * scratch buffer owned by the output, so writing them does not create garbage either.
+ */
+abstract class Output {
+
+	/** Holds the number or formatted element being written; created on first use. */
+	private StringBuilder scratch;
+
+	static Output of(Appendable appendable) {
+		if (appendable instanceof Writer) {
+			return new WriterOutput((Writer) appendable);
+		}
+		return new AppendableOutput(appendable);
+	}
+
+	/** Writes the characters of {@code s} from {@code start} (inclusive) to {@code end} (exclusive). */
+	abstract void append(String s, int start, int end) throws IOException;
+
+	/** Writes a complete value. */
+	abstract void append(CharSequence value) throws IOException;
+
+	/** Writes the contents of the buffer returned by {@link #scratch()}. */
+	abstract void appendScratch(StringBuilder scratch) throws IOException;
+
+	/** Writes the {@link Long#toString(long)} value for the given long. */
+	void append(long value) throws IOException {
+		appendScratch(scratch().append(value));
+	}
+
+	/** Writes the {@link Double#toString(double)} value for the given double. */
+	void append(double value) throws IOException {
+		appendScratch(scratch().append(value));
+	}
+
+	/** Writes the {@link Float#toString(float)} value for the given float. */
+	void append(float value) throws IOException {
+		appendScratch(scratch().append(value));
+	}
+
+	/** Returns the empty scratch buffer of this output. */
+	StringBuilder scratch() {
+		if (scratch == null) {
+			scratch = new StringBuilder(Numbers.MAX_DOUBLE_LENGTH);
+		} else {
+			scratch.setLength(0);
+		}
+		return scratch;
+	}
+
+	/** Writes to any {@link Appendable}. */
+	private static final class AppendableOutput extends Output {
+		private final Appendable target;
+
+		AppendableOutput(Appendable target) {
+			this.target = target;
+		}
+
+		@Override
+		void append(String s, int start, int end) throws IOException {
+			target.append(s, start, end);
+		}
+
+		@Override
+		void append(CharSequence value) throws IOException {
+			target.append(value);
+		}
+
+		@Override
+		void appendScratch(StringBuilder scratch) throws IOException {
+			target.append(scratch);
+		}
+	}
+
+	/**
+	 * Writes to a {@link Writer}. {@link Writer#append(CharSequence, int, int)} creates a
+	 * sub-sequence for every call, so slices go through {@link Writer#write(String, int, int)}.
+	 */
+	private static final class WriterOutput extends Output {
+		private final Writer target;
+		private char[] chars;
+
+		WriterOutput(Writer target) {
+			this.target = target;
+		}
+
+		@Override
+		void append(String s, int start, int end) throws IOException {
+			target.write(s, start, end - start);
+		}
+
+		@Override
+		void append(CharSequence value) throws IOException {
+			if (value instanceof String) {
+				target.write((String) value);
+			} else {
+				target.append(value);
+			}
+		}
+
+		@Override
+		void appendScratch(StringBuilder scratch) throws IOException {
+			int length = scratch.length();
+			if (chars == null || chars.length < length) {
+				chars = new char[Math.max(length, Numbers.MAX_DOUBLE_LENGTH)];
+			}
+			scratch.getChars(0, length, chars, 0);
+			target.write(chars, 0, length);
+		}
+	}
+
+}
@@ -16,14 +16,12 @@
  */
 package com.pddstudio.phrase.java;
 
-import java.lang.reflect.Array;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * A fluent API for formatting Strings. Canonical usage:
@@ -35,42 +33,43 @@ import java.util.Set;
  * </pre>
  * <ul>
  * <li>Surround keys with curly braces; use two {{ to escape.</li>
- * <li>Keys start with lowercase letters followed by lowercase letters and underscores.</li>
- * <li>Spans are preserved, such as simple HTML tags found in strings.xml.</li>
+ * <li>Keys start with lowercase letters followed by lowercase letters and underscores; dots
+ * separate the properties of a path such as {user.first_name}.</li>
  * <li>Fails fast on any mismatched keys.</li>
  * </ul>
- * The constructor parses the original pattern into a doubly-linked list of {@link Token}s.
- * These tokens do not modify the original pattern, thus preserving any spans.
- * <p>
- * The {@link #format()} method iterates over the tokens, replacing text as it iterates. The
- * doubly-linked list allows each token to ask its predecessor for the expanded length.
+ * A Phrase is a mutable pairing of a compiled {@link PhraseTemplate} and the
+ * {@link PhraseTemplate.Bindings} for it. The template is immutable and may be shared, while the
+ * bindings hold the values of this phrase only; use {@link #from(PhraseTemplate)} to avoid
+ * parsing the same pattern over and over again. The pattern based entry points look up their
+ * templates in a shared {@link PhraseCache}, see {@link #setTemplateCache(PhraseCache)}.
  */
 public final class Phrase {
 
-	private static final String DEFAULT_SEPARATOR = " ";
+	/** The cache used by the pattern based entry points. */
+	private static volatile PhraseCache templateCache = new PhraseCache(PhraseCache.DEFAULT_MAXIMUM_SIZE);
 
-	/** The unmodified original pattern. */
-	private final CharSequence pattern;
+	/** The immutable, parsed form of the original pattern. */
+	private final PhraseTemplate template;
 
-	/** The identification type for keys */
-	private final KeyIdentifier keyIdentifier;
-
-	/** All keys parsed from the original pattern, sans braces. */
-	private final Set<String> keys = new HashSet<String>();
-	private final Map<String, CharSequence> keysToValues = new HashMap<String, CharSequence>();
+	/** The values of this phrase, keyed by the keys of the template. */
+	private final PhraseTemplate.Bindings bindings;
 
 	/** Cached result after replacing all keys with corresponding values. */
 	private CharSequence formatted;
 
-	/** The constructor parses the original pattern into this doubly-linked list of tokens. */
-	private Token head;
+	/** Whether a new value only renders the segments of its key again, see {@link #incremental()}. */
+	private boolean incremental;
+
+	/** The output of the last incremental render, updated in place, and the end of every segment in it. */
+	private StringBuilder rendered;
+	private int[] segmentEnds;
+	private StringBuilder scratch;
 
-	/** When parsing, this is the current character. */
-	private char curChar;
-	private int curCharIndex;
+	/** The work done by the last incremental render. */
+	private RenderStats lastRenderStats;
 
-	/** Indicates parsing is complete. */
-	private static final int EOF = 0;
+	/** The pool to borrow render buffers from, or null to render into a new buffer; see {@link #pooled(RenderBufferPool)}. */
+	private RenderBufferPool pool;
 
 	/**
 	 * Entry point into this API; pattern must be non-null.
@@ -78,7 +77,7 @@ public final class Phrase {
 	 * @throws IllegalArgumentException if pattern contains any syntax errors.
 	 */
 	public static Phrase from(CharSequence pattern) {
-		return new Phrase(pattern, KeyIdentifier.CURLY_BRACKETS);
+		return new Phrase(templateCache.get(pattern, KeyIdentifier.CURLY_BRACKETS));
 	}
 
 	/**
@@ -87,7 +86,40 @@ public final class Phrase {
 	 * @throws IllegalArgumentException if pattern contains any syntax errors.
 	 */
 	public static Phrase from(CharSequence pattern, KeyIdentifier keyIdentifier) {
-		return new Phrase(pattern, keyIdentifier);
+		return new Phrase(templateCache.get(pattern, keyIdentifier));
+	}
+
+	/**
+	 * Entry point into this API for patterns with other delimiters, such as {@code "${name}"};
+	 * pattern must be non-null.
+	 *
+	 * @throws IllegalArgumentException if pattern contains any syntax errors.
+	 */
+	public static Phrase from(CharSequence pattern, Delimiters delimiters) {
+		return new Phrase(templateCache.get(pattern, delimiters));
+	}
+
+	/**
+	 * Entry point into this API for an already compiled template; does not parse anything.
+	 */
+	public static Phrase from(PhraseTemplate template) {
+		return new Phrase(template);
+	}
+
+	/**
+	 * Replaces the cache used by {@link #from(CharSequence)}, {@link #from(CharSequence, KeyIdentifier)}
+	 * and {@link #from(CharSequence, Delimiters)}; use {@code new PhraseCache(0)} to disable caching.
+	 */
+	public static void setTemplateCache(PhraseCache cache) {
+		if (cache == null) {
+			throw new IllegalArgumentException("Null template cache");
+		}
+		templateCache = cache;
+	}
+
+	/** Returns the cache used by the pattern based entry points, e.g. to read its statistics. */
+	public static PhraseCache getTemplateCache() {
+		return templateCache;
 	}
 
 	/**
@@ -97,16 +129,19 @@ public final class Phrase {
 	 * @throws IllegalArgumentException if the key is not in the pattern.
 	 */
 	public Phrase put(String key, CharSequence value) {
-		if (!keys.contains(key)) {
-			throw new IllegalArgumentException("Invalid key: " + key);
-		}
-		if (value == null) {
-			throw new IllegalArgumentException("Null value for '" + key + "'");
-		}
-		keysToValues.put(key, value);
+		bindings.put(key, value);
+		invalidate();
+		return this;
+	}
 
-		// Invalidate the cached formatted text.
-		formatted = null;
+	/**
+	 * Replaces the key of the given slot with a non-null value; see {@link PhraseTemplate#slot(String)}.
+	 *
+	 * @throws IllegalArgumentException if the slot belongs to another template.
+	 */
+	public Phrase put(PhraseTemplate.Slot slot, CharSequence value) {
+		bindings.put(slot, value);
+		invalidate();
 		return this;
 	}
 
@@ -116,7 +151,34 @@ public final class Phrase {
 	 * @see #put(String, CharSequence)
 	 */
 	public Phrase put(String key, int value) {
-		return put(key, Integer.toString(value));
+		bindings.put(key, value);
+		invalidate();
+		return this;
+	}
+
+	/** @see #put(String, int) */
+	public Phrase put(PhraseTemplate.Slot slot, int value) {
+		bindings.put(slot, value);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Replaces the given key with the {@link Long#toString(long)} value for the given long.
+	 *
+	 * @see #put(String, CharSequence)
+	 */
+	public Phrase put(String key, long value) {
+		bindings.put(key, value);
+		invalidate();
+		return this;
+	}
+
+	/** @see #put(String, long) */
+	public Phrase put(PhraseTemplate.Slot slot, long value) {
+		bindings.put(slot, value);
+		invalidate();
+		return this;
 	}
 
 	/**
@@ -125,7 +187,16 @@ public final class Phrase {
 	 * @see #put(String, CharSequence)
 	 */
 	public Phrase put(String key, boolean value) {
-		return put(key, Boolean.toString(value));
+		bindings.put(key, value);
+		invalidate();
+		return this;
+	}
+
+	/** @see #put(String, boolean) */
+	public Phrase put(PhraseTemplate.Slot slot, boolean value) {
+		bindings.put(slot, value);
+		invalidate();
+		return this;
 	}
 
 	/**
@@ -134,7 +205,16 @@ public final class Phrase {
 	 * @see #put(String, CharSequence)
 	 */
 	public Phrase put(String key, double value) {
-		return put(key, String.valueOf(value));
+		bindings.put(key, value);
+		invalidate();
+		return this;
+	}
+
+	/** @see #put(String, double) */
+	public Phrase put(PhraseTemplate.Slot slot, double value) {
+		bindings.put(slot, value);
+		invalidate();
+		return this;
 	}
 
 	/**
@@ -143,7 +223,16 @@ public final class Phrase {
 	 * @see #put(String, CharSequence)
 	 */
 	public Phrase put(String key, float value) {
-		return put(key, String.valueOf(value));
+		bindings.put(key, value);
+		invalidate();
+		return this;
+	}
+
+	/** @see #put(String, float) */
+	public Phrase put(PhraseTemplate.Slot slot, float value) {
+		bindings.put(slot, value);
+		invalidate();
+		return this;
 	}
 
 	/**
@@ -152,7 +241,40 @@ public final class Phrase {
 	 * @see #put(String, CharSequence)
 	 */
 	public <T> Phrase put(String key, T value) {
-		return put(key, String.valueOf(value));
+		bindings.put(key, value);
+		invalidate();
+		return this;
+	}
+
+	/** @see #put(String, Object) */
+	public <T> Phrase put(PhraseTemplate.Slot slot, T value) {
+		bindings.put(slot, value);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Replaces every key found in the given map with its value.
+	 *
+	 * @see PhraseTemplate.Bindings#putAll(Map)
+	 */
+	public Phrase putAll(Map<String, ?> values) {
+		bindings.putAll(values);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Replaces every key with the value of the property of the given object it names, such as
+	 * {@code getFirstName()} for "first_name" or {@code getUser().getFirstName()} for
+	 * "user.first_name".
+	 *
+	 * @see PhraseTemplate.Bindings#bind(Object)
+	 */
+	public Phrase bind(Object bean) {
+		bindings.bind(bean);
+		invalidate();
+		return this;
 	}
 
 	/**
@@ -166,11 +288,43 @@ public final class Phrase {
 	 * @see #putArray(String, Object[], String)
 	 */
 	public Phrase putArray(String key, int[] values, String separator) {
-		Integer[] integers = new Integer[values.length];
-		for(int i = 0; i < integers.length; i++) {
-			integers[i] = values[i];
-		}
-		return putArray(key, integers, separator);
+		bindings.putArray(key, values, separator);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Like {@link #putArray(String, int[], String)}, but every item is appended by the given formatter.
+	 */
+	public Phrase putArray(String key, int[] values, String separator, ElementFormatter<?> formatter) {
+		bindings.putArray(key, values, separator, formatter);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Replaces the given key with the created String of each item's {@link String#valueOf(Object)}
+	 * value for the given array item - chained with the provided separator.
+	 *
+	 * @param key - The key for which should be replaced with this array.
+	 * @param values - The array which should be used for this replacement.
+	 * @param separator - The separator which should be used to chain several items together.
+	 *
+	 * @see #putArray(String, Object[], String)
+	 */
+	public Phrase putArray(String key, long[] values, String separator) {
+		bindings.putArray(key, values, separator);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Like {@link #putArray(String, long[], String)}, but every item is appended by the given formatter.
+	 */
+	public Phrase putArray(String key, long[] values, String separator, ElementFormatter<?> formatter) {
+		bindings.putArray(key, values, separator, formatter);
+		invalidate();
+		return this;
 	}
 
 	/**
@@ -184,11 +338,18 @@ public final class Phrase {
 	 * @see #putArray(String, Object[], String)
 	 */
 	public Phrase putArray(String key, boolean[] values, String separator) {
-		Boolean[] bools = new Boolean[values.length];
-		for(int i = 0; i < bools.length; i++) {
-			bools[i] = values[i];
-		}
-		return putArray(key, bools, separator);
+		bindings.putArray(key, values, separator);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Like {@link #putArray(String, boolean[], String)}, but every item is appended by the given formatter.
+	 */
+	public Phrase putArray(String key, boolean[] values, String separator, ElementFormatter<?> formatter) {
+		bindings.putArray(key, values, separator, formatter);
+		invalidate();
+		return this;
 	}
 
 	/**
@@ -202,11 +363,18 @@ public final class Phrase {
 	 * @see #putArray(String, Object[], String)
 	 */
 	public Phrase putArray(String key, float[] values, String separator) {
-		Float[] floats = new Float[values.length];
-		for(int i = 0; i < floats.length; i++) {
-			floats[i] = values[i];
-		}
-		return putArray(key, floats, separator);
+		bindings.putArray(key, values, separator);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Like {@link #putArray(String, float[], String)}, but every item is appended by the given formatter.
+	 */
+	public Phrase putArray(String key, float[] values, String separator, ElementFormatter<?> formatter) {
+		bindings.putArray(key, values, separator, formatter);
+		invalidate();
+		return this;
 	}
 
 	/**
@@ -220,16 +388,24 @@ public final class Phrase {
 	 * @see #putArray(String, Object[], String)
 	 */
 	public Phrase putArray(String key, double[] values, String separator) {
-		Double[] doubles = new Double[values.length];
-		for(int i = 0; i < doubles.length; i++) {
-			doubles[i] = values[i];
-		}
-		return putArray(key, doubles, separator);
+		bindings.putArray(key, values, separator);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Like {@link #putArray(String, double[], String)}, but every item is appended by the given formatter.
+	 */
+	public Phrase putArray(String key, double[] values, String separator, ElementFormatter<?> formatter) {
+		bindings.putArray(key, values, separator, formatter);
+		invalidate();
+		return this;
 	}
 
 	/**
 	 * Replaces the given key with the created String of each item's {@link String#valueOf(Object)}
-	 * value for the given array item - chained with the provided separator.
+	 * value for the given array item - chained with the provided separator. The items are written
+	 * directly into the formatted text, so the array must not change until it is formatted.
 	 *
 	 * @param key - The key for which should be replaced with this array.
 	 * @param values - The array which should be used for this replacement.
@@ -238,18 +414,18 @@ public final class Phrase {
 	 * @see #put(String, CharSequence)
 	 */
 	public <T> Phrase putArray(String key, T[] values, String separator) {
-		separator = validateSeparator(separator);
-		StringBuilder chainedValues = new StringBuilder();
-		List<T> typeList = Arrays.asList(values);
-		Iterator<T> iterator = typeList.iterator();
-		while (iterator.hasNext()) {
-			T object = iterator.next();
-			chainedValues.append(String.valueOf(object));
-			if(iterator.hasNext()) {
-				chainedValues.append(separator);
-			}
-		}
-		return put(key, chainedValues.toString());
+		bindings.putArray(key, values, separator);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Like {@link #putArray(String, Object[], String)}, but every item is appended by the given formatter.
+	 */
+	public <T> Phrase putArray(String key, T[] values, String separator, ElementFormatter<? super T> formatter) {
+		bindings.putArray(key, values, separator, formatter);
+		invalidate();
+		return this;
 	}
 
 	/**
@@ -260,18 +436,36 @@ public final class Phrase {
 	 * @param values - The list which should be used for this replacement.
 	 * @param separator - The separator which should be used to chain several items together.
 	 *
-	 * @see #putArray(String, Object[], String)
+	 * @see #putIterable(String, Iterable, String)
 	 */
-	@SuppressWarnings("unchecked")
 	public <T> Phrase putList(String key, List<T> values, String separator) {
-		if(values.isEmpty()) {
-			throw new IllegalArgumentException("List must not be empty!");
-		}
-		T[] objects = (T[]) Array.newInstance(values.get(0).getClass(), values.size());
-		for(int i = 0; i < objects.length; i++) {
-			objects[i] = values.get(i);
-		}
-		return putArray(key, objects, separator);
+		return putIterable(key, values, separator);
+	}
+
+	/**
+	 * Replaces the given key with the created String of each item's {@link String#valueOf(Object)}
+	 * value for the given items - chained with the provided separator. The items are iterated
+	 * whenever the phrase is formatted.
+	 *
+	 * @param key - The key which should be replaced with these items
+	 * @param values - The items which should be used for this replacement.
+	 * @param separator - The separator which should be used to chain several items together.
+	 *
+	 * @see #putArray(String, Object[], String)
+	 */
+	public <T> Phrase putIterable(String key, Iterable<T> values, String separator) {
+		bindings.putIterable(key, values, separator);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Like {@link #putIterable(String, Iterable, String)}, but every item is appended by the given formatter.
+	 */
+	public <T> Phrase putIterable(String key, Iterable<T> values, String separator, ElementFormatter<? super T> formatter) {
+		bindings.putIterable(key, values, separator, formatter);
+		invalidate();
+		return this;
 	}
 
 	/**
@@ -280,7 +474,7 @@ public final class Phrase {
 	 * @see #put(String, CharSequence)
 	 */
 	public Phrase putOptional(String key, CharSequence value) {
-		return keys.contains(key) ? put(key, value) : this;
+		return template.hasKey(key) ? put(key, value) : this;
 	}
 
 	/**
@@ -290,47 +484,72 @@ public final class Phrase {
 	 * @see #putOptional(String, CharSequence)
 	 */
 	public Phrase putOptional(String key, int value) {
-		return keys.contains(key) ? put(key, value) : this;
+		return template.hasKey(key) ? put(key, value) : this;
+	}
+
+	public Phrase putOptional(String key, long value) {
+		return template.hasKey(key) ? put(key, value) : this;
 	}
 
 	public Phrase putOptional(String key, boolean value) {
-		return keys.contains(key) ? put(key, value) : this;
+		return template.hasKey(key) ? put(key, value) : this;
 	}
 
 	public Phrase putOptional(String key, float value) {
-		return keys.contains(key) ? put(key, value) : this;
+		return template.hasKey(key) ? put(key, value) : this;
 	}
 
 	public Phrase putOptional(String key, double value) {
-		return keys.contains(key) ? put(key, value) : this;
+		return template.hasKey(key) ? put(key, value) : this;
 	}
 
 	public <T> Phrase putOptional(String key, T value) {
-		return keys.contains(key) ? put(key, value) : this;
+		return template.hasKey(key) ? put(key, value) : this;
 	}
 
 	/**
-	 * Returns the text after replacing all keys with values.
+	 * Replaces the given key with the value computed by the supplier. The supplier is only called
+	 * when the text is formatted, and not again until a key is replaced.
 	 *
-	 * @throws IllegalArgumentException if any keys are not replaced.
+	 * @throws IllegalArgumentException if the key is not in the pattern.
 	 */
-	public CharSequence format() {
-		if (formatted == null) {
-			if (!keysToValues.keySet().containsAll(keys)) {
-				Set<String> missingKeys = new HashSet<String>(keys);
-				missingKeys.removeAll(keysToValues.keySet());
-				throw new IllegalArgumentException("Missing keys: " + missingKeys);
-			}
+	public Phrase putLazy(String key, ValueSupplier<? extends CharSequence> supplier) {
+		bindings.putLazy(key, supplier);
+		invalidate();
+		return this;
+	}
 
-			// Copy the original pattern to preserve all spans, such as bold, italic, etc.
-			StringBuilder sb = new StringBuilder(pattern);
-			for (Token t = head; t != null; t = t.next) {
-				t.expand(sb, keysToValues);
-			}
+	/** @see #putLazy(String, ValueSupplier) */
+	public Phrase putLazy(PhraseTemplate.Slot slot, ValueSupplier<? extends CharSequence> supplier) {
+		bindings.putLazy(slot, supplier);
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Silently ignored if the key is not in the pattern; the supplier is never called then.
+	 *
+	 * @see #putLazy(String, ValueSupplier)
+	 */
+	public Phrase putLazyOptional(String key, ValueSupplier<? extends CharSequence> supplier) {
+		return template.hasKey(key) ? putLazy(key, supplier) : this;
+	}
 
-			formatted = sb;
+	/**
+	 * Replaces the given key with the text of another phrase, rendered straight into the output of
+	 * this phrase whenever it is formatted; see {@link PhraseTemplate.Bindings#put(String, PhraseTemplate.Bindings)}.
+	 * Later changes to the nested phrase show up in the next {@link #format()} of this phrase.
+	 *
+	 * @throws IllegalArgumentException if the key is not in the pattern, or if the nested phrase
+	 * holds this phrase.
+	 */
+	public Phrase put(String key, Phrase nested) {
+		if (nested == null) {
+			throw new IllegalArgumentException("Null value for '" + key + "'");
 		}
-		return formatted;
+		bindings.put(key, nested.bindings);
+		invalidate();
+		return this;
 	}
 
 	/**
@@ -338,216 +557,198 @@ public final class Phrase {
 	 *
 	 * @throws IllegalArgumentException if any keys are not replaced.
 	 */
-	public String formatString() {
-		return format().toString();
+	public CharSequence format() {
+		// Nested phrases may have changed since, so their text is never reused.
+		if (formatted == null || bindings.hasNestedValues()) {
+			if (incremental) {
+				formatted = renderIncrementally();
+			} else if (pool != null) {
+				formatted = template.formatString(bindings, pool);
+			} else {
+				formatted = template.format(bindings);
+			}
+		} else {
+			PhraseMetrics metrics = PhraseMetrics.installed();
+			if (metrics != PhraseMetrics.NOOP) {
+				metrics.reused(template, formatted.length());
+			}
+		}
+		return formatted;
 	}
 
 	/**
-	 * Returns the raw pattern without expanding keys; only useful for debugging. Does not pass
-	 * through to {@link #format()} because doing so would drop all spans.
+	 * Keeps the formatted text of this phrase between renders and, after values are replaced,
+	 * only renders the segments of the replaced keys again instead of the whole pattern. Meant for
+	 * long-lived phrases, such as status lines, of which only a few keys change at a time. Every
+	 * {@link #format()} still returns a new String, copied from the kept text.
 	 */
-	@Override
-	public String toString() {
-		return pattern.toString();
+	public Phrase incremental() {
+		incremental = true;
+		return this;
 	}
 
-	private Phrase(CharSequence pattern, KeyIdentifier keyIdentifier) {
-		curChar = (pattern.length() > 0) ? pattern.charAt(0) : EOF;
-
-		this.pattern = pattern;
-		this.keyIdentifier = keyIdentifier;
-
-		// A hand-coded lexer based on the idioms in "Building Recognizers By Hand".
-		// http://www.antlr2.org/book/byhand.pdf.
-		Token prev = null;
-		Token next;
-		while ((next = token(prev)) != null) {
-			// Creates a doubly-linked list of tokens starting with head.
-			if (head == null) head = next;
-			prev = next;
+	/**
+	 * Renders this phrase in buffers borrowed from the given pool, so that formatting only
+	 * allocates the resulting String. Meant for phrases formatted at high rates; has no effect on
+	 * {@link #incremental()} phrases, which keep their own buffer.
+	 */
+	public Phrase pooled(RenderBufferPool pool) {
+		if (pool == null) {
+			throw new IllegalArgumentException("Null pool");
 		}
+		this.pool = pool;
+		return this;
 	}
 
-	/** Makes sure that the given separator is not null or empty - if so the default separator is used. **/
-	private String validateSeparator(String separator) {
-		if(separator == null || separator.length() == 0) {
-			separator = DEFAULT_SEPARATOR;
-		}
-		return separator;
+	/**
+	 * Returns the work done by the last render of an {@link #incremental()} phrase, or null if
+	 * it wasn't rendered yet.
+	 */
+	public RenderStats getLastRenderStats() {
+		return lastRenderStats;
 	}
 
-	/** Returns the next token from the input pattern, or null when finished parsing. */
-	private Token token(Token prev) {
-		if (curChar == EOF) {
-			return null;
-		}
-		if (curChar == keyIdentifier.getOpenCharacter()) {
-			char nextChar = lookahead();
-			if (nextChar == keyIdentifier.getOpenCharacter()) {
-				return leftCurlyBracket(prev);
-			} else if (nextChar >= 'a' && nextChar <= 'z') {
-				return key(prev);
+	/** Drops the cached formatted text after a value was replaced. */
+	private void invalidate() {
+		formatted = null;
+	}
+
+	private String renderIncrementally() {
+		try {
+			if (segmentEnds == null) {
+				rendered = new StringBuilder();
+				segmentEnds = new int[template.segmentCount()];
+				scratch = new StringBuilder();
+				lastRenderStats = template.render(bindings, rendered, segmentEnds);
 			} else {
-				throw new IllegalArgumentException(
-						"Unexpected character '" + nextChar + "'; expected key.");
+				lastRenderStats = template.rerender(bindings, rendered, segmentEnds, scratch);
 			}
+		} catch (RuntimeException e) {
+			// The kept text may be half updated; start over with the next render.
+			segmentEnds = null;
+			throw e;
 		}
-		return text(prev);
+		return rendered.toString();
 	}
 
-	/** Parses a key: "{some_key}". */
-	private KeyToken key(Token prev) {
-
-		// Store keys as normal Strings; we don't want keys to contain spans.
-		StringBuilder sb = new StringBuilder();
-
-		// Consume the opening '{'.
-		consume();
-		while ((curChar >= 'a' && curChar <= 'z') || curChar == '_') {
-			sb.append(curChar);
-			consume();
-		}
+	/**
+	 * Returns the text after replacing all keys with values.
+	 *
+	 * @throws IllegalArgumentException if any keys are not replaced.
+	 */
+	public String formatString() {
+		return format().toString();
+	}
 
-		// Consume the closing '}'.
-		if (curChar != keyIdentifier.getCloseCharacter()) {
-			throw new IllegalArgumentException("Missing closing brace: " + keyIdentifier.getCloseCharString());
+	/**
+	 * Streams the text after replacing all keys with values to {@code target}. Unlike
+	 * {@link #format()} this neither builds nor caches the complete result, but writes the one
+	 * cached by a previous call to {@link #format()}, unless nested phrases may have changed since.
+	 *
+	 * @throws IllegalArgumentException if any keys are not replaced.
+	 * @throws IOException if the target fails.
+	 */
+	public void formatTo(Appendable target) throws IOException {
+		if (formatted != null && !bindings.hasNestedValues()) {
+			target.append(formatted);
+		} else {
+			template.formatTo(bindings, target);
 		}
-		consume();
+	}
 
-		// Disallow empty keys: {}.
-		if (sb.length() == 0) {
-			throw new IllegalArgumentException("Empty key: " + keyIdentifier.getOpenCharString() + keyIdentifier.getCloseCharString());
+	/**
+	 * Streams the text after replacing all keys with values to {@code writer}.
+	 *
+	 * @see #formatTo(Appendable)
+	 */
+	public void formatTo(Writer writer) throws IOException {
+		if (formatted != null && !bindings.hasNestedValues()) {
+			writer.append(formatted);
+		} else {
+			template.formatTo(bindings, writer);
 		}
-
-		String key = sb.toString();
-		keys.add(key);
-		return new KeyToken(prev, key);
 	}
 
-	/** Consumes and returns a token for a sequence of text. */
-	private TextToken text(Token prev) {
-		int startIndex = curCharIndex;
-
-		while (curChar != keyIdentifier.getOpenCharacter() && curChar != EOF) {
-			consume();
-		}
-		return new TextToken(prev, curCharIndex - startIndex);
+	/**
+	 * Encodes the text after replacing all keys with values as UTF-8 into {@code target}.
+	 *
+	 * @return the number of bytes written.
+	 * @see PhraseTemplate#formatTo(PhraseTemplate.Bindings, ByteBuffer)
+	 */
+	public int formatTo(ByteBuffer target) {
+		return template.formatTo(bindings, target);
 	}
 
-	/** Consumes and returns a token representing two consecutive curly brackets. */
-	private LeftCurlyBracketToken leftCurlyBracket(Token prev) {
-		consume();
-		consume();
-		return new LeftCurlyBracketToken(prev);
+	/**
+	 * Encodes the text after replacing all keys with values as UTF-8 and writes it to
+	 * {@code channel} through {@code buffer}.
+	 *
+	 * @return the number of bytes written.
+	 * @see PhraseTemplate#formatTo(PhraseTemplate.Bindings, WritableByteChannel, ByteBuffer)
+	 */
+	public long formatTo(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		return template.formatTo(bindings, channel, buffer);
 	}
 
-	/** Returns the next character in the input pattern without advancing. */
-	private char lookahead() {
-		return curCharIndex < pattern.length() - 1 ? pattern.charAt(curCharIndex + 1) : EOF;
+	/** Returns the compiled template backing this phrase; it may be shared with other phrases. */
+	public PhraseTemplate getTemplate() {
+		return template;
 	}
 
 	/**
-	 * Advances the current character position without any error checking. Consuming beyond the
-	 * end of the string can only happen if this parser contains a bug.
+	 * Returns the raw pattern of the template without expanding keys; only useful for debugging.
+	 * Does not pass through to {@link #format()}, which fails if any keys are not replaced yet.
 	 */
-	private void consume() {
-		curCharIndex++;
-		curChar = (curCharIndex == pattern.length()) ? EOF : pattern.charAt(curCharIndex);
+	@Override
+	public String toString() {
+		return template.toString();
 	}
 
-	private abstract static class Token {
-		private final Token prev;
-		private Token next;
-
-		protected Token(Token prev) {
-			this.prev = prev;
-			if (prev != null) prev.next = this;
-		}
-
-		/** Replace text in {@code target} with this token's associated value. */
-		abstract void expand(StringBuilder target, Map<String, CharSequence> data);
+	/** The work done by a single render of an {@link #incremental()} phrase. */
+	public static final class RenderStats {
 
-		/** Returns the number of characters after expansion. */
-		abstract int getFormattedLength();
+		private final boolean fullRender;
+		private final int segmentsRendered;
+		private final int segmentCount;
+		private final int charactersWritten;
 
-		/** Returns the character index after expansion. */
-		final int getFormattedStart() {
-			if (prev == null) {
-				// The first token.
-				return 0;
-			} else {
-				// Recursively ask the predecessor node for the starting index.
-				return prev.getFormattedStart() + prev.getFormattedLength();
-			}
+		RenderStats(boolean fullRender, int segmentsRendered, int segmentCount, int charactersWritten) {
+			this.fullRender = fullRender;
+			this.segmentsRendered = segmentsRendered;
+			this.segmentCount = segmentCount;
+			this.charactersWritten = charactersWritten;
 		}
-	}
-
-	/** Ordinary text between tokens. */
-	private static class TextToken extends Token {
-		private final int textLength;
 
-		TextToken(Token prev, int textLength) {
-			super(prev);
-			this.textLength = textLength;
-		}
-
-		@Override
-		void expand(StringBuilder target, Map<String, CharSequence> data) {
-			// Don't alter spans in the target.
+		/** Returns whether the whole pattern was rendered, which happens the first time. */
+		public boolean isFullRender() {
+			return fullRender;
 		}
 
-		@Override
-		int getFormattedLength() {
-			return textLength;
+		/** Returns the number of literal and key segments rendered. */
+		public int getSegmentsRendered() {
+			return segmentsRendered;
 		}
-	}
 
-	/** A sequence of two curly brackets. */
-	private class LeftCurlyBracketToken extends Token {
-		LeftCurlyBracketToken(Token prev) {
-			super(prev);
+		/** Returns the number of segments whose output was kept from the previous render. */
+		public int getSegmentsReused() {
+			return segmentCount - segmentsRendered;
 		}
 
-		@Override
-		void expand(StringBuilder target, Map<String, CharSequence> data) {
-			int start = getFormattedStart();
-			target.replace(start, start + 2, keyIdentifier.getOpenCharString());
+		/** Returns the number of characters written into the kept text. */
+		public int getCharactersWritten() {
+			return charactersWritten;
 		}
 
 		@Override
-		int getFormattedLength() {
-			// Replace {{ with {.
-			return 1;
+		public String toString() {
+			return (fullRender ? "full" : "incremental") + ", segmentsRendered=" + segmentsRendered
+					+ ", segmentsReused=" + getSegmentsReused() + ", charactersWritten=" + charactersWritten;
 		}
 	}
 
-	private static class KeyToken extends Token {
-		/** The key without { and }. */
-		private final String key;
-
-		private CharSequence value;
-
-		KeyToken(Token prev, String key) {
-			super(prev);
-			this.key = key;
-		}
-
-		@Override
-		void expand(StringBuilder target, Map<String, CharSequence> data) {
-			value = data.get(key);
-
-			int replaceFrom = getFormattedStart();
-			// Add 2 to account for the opening and closing brackets.
-			int replaceTo = replaceFrom + key.length() + 2;
-			target.replace(replaceFrom, replaceTo, value.toString());
-		}
-
-		@Override
-		int getFormattedLength() {
-			// Note that value is only present after expand. Don't error check because this is all
-			// private code.
-			return value.length();
-		}
+	private Phrase(PhraseTemplate template) {
+		this.template = template;
+		this.bindings = template.newBindings();
 	}
 
 	public enum KeyIdentifier {
@@ -557,9 +758,11 @@ public final class Phrase {
 		SQUARE_BRACKETS('[', ']');
 
 		private final Pair<Character, Character> identifiers;
+		private final Delimiters delimiters;
 
 		KeyIdentifier(char open, char close) {
 			this.identifiers = new Pair<>(open, close);
+			this.delimiters = new Delimiters(String.valueOf(open), String.valueOf(close), new String(new char[] { open, open }), this);
 		}
 
 		public char getOpenCharacter() {
@@ -578,6 +781,11 @@ public final class Phrase {
 			return String.valueOf(getCloseCharacter());
 		}
 
+		/** Returns these brackets as delimiters, escaped by doubling the open bracket. */
+		public Delimiters getDelimiters() {
+			return delimiters;
+		}
+
 	}
 
 }
\ No newline at end of file
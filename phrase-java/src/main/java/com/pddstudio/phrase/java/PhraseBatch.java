@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders one {@link PhraseTemplate} against many rows of values. Canonical usage:
+ * <pre>
+ *   List&lt;String&gt; bodies = PhraseBatch.of(template).render(rows);
+ * </pre>
+ * Rows are rendered in parallel on a {@link ForkJoinPool}. Every fork-join task binds its rows
+ * into a single {@link PhraseTemplate.Bindings} and renders them into a single buffer which it
+ * reuses from row to row. Results are always delivered in row order, no matter how many threads
+ * rendered them.
+ * <p>
+ * Batches are immutable and may be shared between threads.
+ */
+public final class PhraseBatch {
+
+	/** Rows are handed to a {@link Sink} in chunks of this size, bounding the results held in memory. */
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	/** The minimum number of rows rendered by a single task. */
+	private static final int MIN_ROWS_PER_TASK = 64;
+
+	private static volatile ForkJoinPool defaultPool;
+
+	private final PhraseTemplate template;
+
+	/** The pool to render on, or null to use the shared default pool. */
+	private final ForkJoinPool pool;
+
+	/** Whether all rows are rendered on the calling thread. */
+	private final boolean sequential;
+
+	/** Creates a batch rendering the given template on a shared pool using all available processors. */
+	public static PhraseBatch of(PhraseTemplate template) {
+		return new PhraseBatch(template, null, false);
+	}
+
+	private PhraseBatch(PhraseTemplate template, ForkJoinPool pool, boolean sequential) {
+		this.template = template;
+		this.pool = pool;
+		this.sequential = sequential;
+	}
+
+	/** Returns a batch rendering on the given pool, whose parallelism decides the number of threads. */
+	public PhraseBatch withPool(ForkJoinPool pool) {
+		if (pool == null) {
+			throw new IllegalArgumentException("Null pool");
+		}
+		return new PhraseBatch(template, pool, false);
+	}
+
+	/** Returns a batch rendering all rows on the calling thread. */
+	public PhraseBatch sequential() {
+		return new PhraseBatch(template, null, true);
+	}
+
+	/** Returns the template rendered by this batch. */
+	public PhraseTemplate getTemplate() {
+		return template;
+	}
+
+	/**
+	 * Renders one result per map, looking up every key of the template in it.
+	 *
+	 * @throws IllegalArgumentException if a row is missing a key of the template.
+	 */
+	public List<String> render(List<? extends Map<String, ?>> rows) {
+		return render(rows.size(), new MapRows(template, rows));
+	}
+
+	/** @see #render(List) */
+	public void render(List<? extends Map<String, ?>> rows, Sink sink) {
+		render(rows.size(), new MapRows(template, rows), sink);
+	}
+
+	/**
+	 * Renders one result per row of the given columns.
+	 *
+	 * @throws IllegalArgumentException if a key of the template has no column.
+	 */
+	public List<String> render(Columns columns) {
+		return render(columns.rowCount, columns.binder(template));
+	}
+
+	/** @see #render(Columns) */
+	public void render(Columns columns, Sink sink) {
+		render(columns.rowCount, columns.binder(template), sink);
+	}
+
+	/**
+	 * Renders {@code rowCount} results, asking the binder for the values of every row. The binder
+	 * is called concurrently for different rows.
+	 */
+	public List<String> render(int rowCount, RowBinder binder) {
+		String[] results = new String[rowCount];
+		renderRange(binder, results, 0, rowCount);
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Renders {@code rowCount} results and hands them to the sink in row order, on the calling
+	 * thread. Only a bounded number of results are held in memory at any time.
+	 */
+	public void render(int rowCount, RowBinder binder, Sink sink) {
+		String[] results = new String[Math.min(rowCount, CHUNK_SIZE)];
+		for (int chunkStart = 0; chunkStart < rowCount; chunkStart += CHUNK_SIZE) {
+			int chunkEnd = Math.min(rowCount, chunkStart + CHUNK_SIZE);
+			renderRange(binder, results, chunkStart, chunkEnd);
+			for (int row = chunkStart; row < chunkEnd; row++) {
+				sink.accept(row, results[row - chunkStart]);
+				results[row - chunkStart] = null;
+			}
+		}
+	}
+
+	/** Renders the rows from start (inclusive) to end (exclusive) into results, starting at index 0. */
+	private void renderRange(RowBinder binder, String[] results, int start, int end) {
+		ForkJoinPool pool = this.pool;
+		if (pool == null && !sequential && Runtime.getRuntime().availableProcessors() > 1) {
+			pool = defaultPool();
+		}
+		RenderTask task = new RenderTask(template, binder, results, start, start, end, rowsPerTask(pool, end - start));
+		if (pool == null || end - start <= MIN_ROWS_PER_TASK) {
+			task.compute();
+		} else {
+			pool.invoke(task);
+		}
+	}
+
+	private static int rowsPerTask(ForkJoinPool pool, int rowCount) {
+		if (pool == null) {
+			return Integer.MAX_VALUE;
+		}
+		// Split into a few tasks per worker so that workers finishing early can steal the rest.
+		return Math.max(MIN_ROWS_PER_TASK, rowCount / (pool.getParallelism() * 4));
+	}
+
+	private static ForkJoinPool defaultPool() {
+		ForkJoinPool pool = defaultPool;
+		if (pool == null) {
+			synchronized (PhraseBatch.class) {
+				pool = defaultPool;
+				if (pool == null) {
+					defaultPool = pool = new ForkJoinPool();
+				}
+			}
+		}
+		return pool;
+	}
+
+	/** Fills the bindings of a single row. */
+	public interface RowBinder {
+
+		/**
+		 * Puts the values of the given row into the bindings, which have been cleared beforehand.
+		 * Called concurrently for different rows.
+		 */
+		void bind(int row, PhraseTemplate.Bindings bindings);
+	}
+
+	/** Receives rendered results in row order. */
+	public interface Sink {
+
+		void accept(int row, String result);
+	}
+
+	/**
+	 * Parallel column arrays holding the values of a batch, one column per key. Primitive columns
+	 * are bound without boxing.
+	 */
+	public static final class Columns {
+
+		private final int rowCount;
+		private final Map<String, Object> columns = new LinkedHashMap<String, Object>();
+
+		private Columns(int rowCount) {
+			this.rowCount = rowCount;
+		}
+
+		/** Creates empty columns for the given number of rows. */
+		public static Columns of(int rowCount) {
+			return new Columns(rowCount);
+		}
+
+		public Columns column(String key, CharSequence[] values) {
+			return add(key, values, values.length);
+		}
+
+		public Columns column(String key, int[] values) {
+			return add(key, values, values.length);
+		}
+
+		public Columns column(String key, long[] values) {
+			return add(key, values, values.length);
+		}
+
+		public Columns column(String key, float[] values) {
+			return add(key, values, values.length);
+		}
+
+		public Columns column(String key, double[] values) {
+			return add(key, values, values.length);
+		}
+
+		public Columns column(String key, boolean[] values) {
+			return add(key, values, values.length);
+		}
+
+		public Columns column(String key, Object[] values) {
+			return add(key, values, values.length);
+		}
+
+		private Columns add(String key, Object column, int length) {
+			if (length < rowCount) {
+				throw new IllegalArgumentException("Column '" + key + "' has " + length + " rows; expected " + rowCount);
+			}
+			columns.put(key, column);
+			return this;
+		}
+
+		/** Resolves the slot of every column once, so binding a row is a sequence of array reads. */
+		RowBinder binder(PhraseTemplate template) {
+			final PhraseTemplate.Slot[] slots = new PhraseTemplate.Slot[template.getKeys().size()];
+			final Object[] slotColumns = new Object[slots.length];
+			int i = 0;
+			for (String key : template.getKeys()) {
+				Object column = columns.get(key);
+				if (column == null) {
+					throw new IllegalArgumentException("Missing column: " + key);
+				}
+				slots[i] = template.slot(key);
+				slotColumns[i] = column;
+				i++;
+			}
+			return new RowBinder() {
+				@Override
+				public void bind(int row, PhraseTemplate.Bindings bindings) {
+					for (int i = 0; i < slots.length; i++) {
+						Object column = slotColumns[i];
+						if (column instanceof int[]) {
+							bindings.put(slots[i], ((int[]) column)[row]);
+						} else if (column instanceof long[]) {
+							bindings.put(slots[i], ((long[]) column)[row]);
+						} else if (column instanceof float[]) {
+							bindings.put(slots[i], ((float[]) column)[row]);
+						} else if (column instanceof double[]) {
+							bindings.put(slots[i], ((double[]) column)[row]);
+						} else if (column instanceof boolean[]) {
+							bindings.put(slots[i], ((boolean[]) column)[row]);
+						} else if (column instanceof CharSequence[]) {
+							bindings.put(slots[i], ((CharSequence[]) column)[row]);
+						} else {
+							bindings.put(slots[i], ((Object[]) column)[row]);
+						}
+					}
+				}
+			};
+		}
+	}
+
+	/** Binds rows given as maps from key to value. */
+	private static final class MapRows implements RowBinder {
+		private final List<? extends Map<String, ?>> rows;
+		private final PhraseTemplate.Slot[] slots;
+
+		MapRows(PhraseTemplate template, List<? extends Map<String, ?>> rows) {
+			// Rows are read by index, which takes linear time in a linked list.
+			this.rows = rows instanceof RandomAccess ? rows : new ArrayList<Map<String, ?>>(rows);
+			this.slots = new PhraseTemplate.Slot[template.getKeys().size()];
+			int i = 0;
+			for (String key : template.getKeys()) {
+				slots[i++] = template.slot(key);
+			}
+		}
+
+		@Override
+		public void bind(int row, PhraseTemplate.Bindings bindings) {
+			Map<String, ?> values = rows.get(row);
+			for (PhraseTemplate.Slot slot : slots) {
+				Object value = values.get(slot.getKey());
+				// Leave keys without a value unbound so they are reported as missing.
+				if (value != null || values.containsKey(slot.getKey())) {
+					bindings.put(slot, value);
+				}
+			}
+		}
+	}
+
+	/** Renders a range of rows, splitting it in halves until it is small enough. */
+	private static final class RenderTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final PhraseTemplate template;
+		private final RowBinder binder;
+		private final String[] results;
+		private final int offset;
+		private final int start;
+		private final int end;
+		private final int rowsPerTask;
+
+		RenderTask(PhraseTemplate template, RowBinder binder, String[] results, int offset, int start, int end, int rowsPerTask) {
+			this.template = template;
+			this.binder = binder;
+			this.results = results;
+			this.offset = offset;
+			this.start = start;
+			this.end = end;
+			this.rowsPerTask = rowsPerTask;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > rowsPerTask) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new RenderTask(template, binder, results, offset, start, middle, rowsPerTask),
+						new RenderTask(template, binder, results, offset, middle, end, rowsPerTask));
+				return;
+			}
+			PhraseTemplate.Bindings bindings = template.newBindings();
+			StringBuilder buffer = new StringBuilder();
+			for (int row = start; row < end; row++) {
+				bindings.clear();
+				binder.bind(row, bindings);
+				buffer.setLength(0);
+				try {
+					template.appendTo(bindings, buffer);
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Row " + row + ": " + e.getMessage(), e);
+				}
+				results[row - offset] = buffer.toString();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import com.pddstudio.phrase.java.Phrase.KeyIdentifier;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A catalog of patterns read from a properties-style file, compiled one by one on first access.
+ * Canonical usage:
+ * <pre>
+ *   PhraseBundle bundle = PhraseBundle.open(Paths.get("messages.properties"));
+ *
+ *   CharSequence greeting = bundle.phrase("greeting").put("name", name).format();
+ * </pre>
+ * The file is memory-mapped rather than read onto the heap. Opening a bundle makes a single pass
+ * over the mapped bytes to build a compact index of flat int arrays, from every key to the
+ * position of its pattern in the file; no String or template is created for an entry until it is
+ * looked up. The first lookup of a key decodes and compiles its pattern, later lookups return the
+ * same {@link PhraseTemplate}.
+ * <p>
+ * The file is UTF-8 encoded. Every line holds a {@code key=pattern} or {@code key: pattern}
+ * entry, a comment starting with {@code #} or {@code !}, or nothing. Patterns may use the escapes
+ * {@code \t}, {@code \n}, {@code \r}, {@code \f}, {@code \\} and {@code \}{@code uXXXX}, and may
+ * continue on the next line after a trailing backslash. Keys may use the same escapes, and a
+ * backslash before any other character, such as {@code \=} or {@code \ }, makes it part of the
+ * key; keys are compared once their escapes are resolved. Comments end at the end of their line.
+ * If a key occurs more than once, the last entry wins.
+ * <p>
+ * Bundles are immutable and may be shared between threads. The file must not change while a
+ * bundle for it is in use.
+ */
+public final class PhraseBundle {
+
+	/** The number of ints describing an entry: the key start and length, the pattern start and end, and the key hash. */
+	private static final int ENTRY_SIZE = 5;
+	private static final int KEY_START = 0;
+	private static final int KEY_LENGTH = 1;
+	private static final int VALUE_START = 2;
+	private static final int VALUE_END = 3;
+	private static final int HASH = 4;
+
+	private final ByteBuffer catalog;
+	private final Delimiters delimiters;
+	private final Locale locale;
+
+	/**
+	 * The entries in file order, {@link #ENTRY_SIZE} ints each. The key length of an entry whose
+	 * key has escapes is the complement of the index of its resolved key in {@link #escapedKeys}.
+	 */
+	private final int[] entries;
+
+	/** The resolved keys of the entries whose keys have escapes. */
+	private final String[] escapedKeys;
+
+	/** An open addressing hash table holding entry numbers plus one; 0 marks a free bucket. */
+	private final int[] table;
+	private final int size;
+
+	/** The compiled template of every entry, created on first access. */
+	private final AtomicReferenceArray<PhraseTemplate> templates;
+
+	/**
+	 * Opens the catalog at the given path using {@link KeyIdentifier#CURLY_BRACKETS}.
+	 *
+	 * @throws IOException if the file can't be mapped.
+	 */
+	public static PhraseBundle open(Path path) throws IOException {
+		return open(path, KeyIdentifier.CURLY_BRACKETS);
+	}
+
+	/**
+	 * Opens the catalog at the given path. Patterns are not validated until they are looked up.
+	 *
+	 * @throws IOException if the file can't be mapped.
+	 * @throws IllegalArgumentException if the file is larger than 2 GB.
+	 */
+	public static PhraseBundle open(Path path, KeyIdentifier keyIdentifier) throws IOException {
+		return open(path, keyIdentifier, Locale.ROOT);
+	}
+
+	/**
+	 * Opens the catalog at the given path, compiling its patterns for the given locale; see
+	 * {@link PhraseTemplate#compile(CharSequence, KeyIdentifier, String, Locale)}.
+	 *
+	 * @see #open(Path, KeyIdentifier)
+	 */
+	public static PhraseBundle open(Path path, KeyIdentifier keyIdentifier, Locale locale) throws IOException {
+		return open(path, keyIdentifier.getDelimiters(), locale);
+	}
+
+	/**
+	 * Opens the catalog at the given path, whose patterns use other delimiters, such as
+	 * {@code "${name}"}, compiling them for the given locale.
+	 *
+	 * @see #open(Path, KeyIdentifier)
+	 */
+	public static PhraseBundle open(Path path, Delimiters delimiters, Locale locale) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long fileSize = channel.size();
+			if (fileSize > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Catalog too large: " + path + " has " + fileSize + " bytes");
+			}
+			// The mapping stays valid after the channel is closed.
+			MappedByteBuffer catalog = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+			return new PhraseBundle(catalog, delimiters, locale);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/** Creates a bundle for catalog contents which are already in memory, e.g. read from a resource. */
+	public static PhraseBundle of(ByteBuffer catalog, KeyIdentifier keyIdentifier) {
+		return of(catalog, keyIdentifier, Locale.ROOT);
+	}
+
+	/** Creates a bundle for catalog contents which are already in memory, compiling its patterns for the given locale. */
+	public static PhraseBundle of(ByteBuffer catalog, KeyIdentifier keyIdentifier, Locale locale) {
+		return of(catalog, keyIdentifier.getDelimiters(), locale);
+	}
+
+	/** Creates a bundle for catalog contents which are already in memory, whose patterns use other delimiters. */
+	public static PhraseBundle of(ByteBuffer catalog, Delimiters delimiters, Locale locale) {
+		return new PhraseBundle(catalog.slice(), delimiters, locale);
+	}
+
+	private PhraseBundle(ByteBuffer catalog, Delimiters delimiters, Locale locale) {
+		this.catalog = catalog;
+		this.delimiters = delimiters;
+		this.locale = locale;
+
+		Indexer indexer = new Indexer(catalog);
+		indexer.run();
+		int[] parsed = Arrays.copyOf(indexer.entries, indexer.length);
+		this.entries = parsed;
+		this.escapedKeys = indexer.escapedKeys.toArray(new String[0]);
+		int entryCount = parsed.length / ENTRY_SIZE;
+		int capacity = Integer.highestOneBit(Math.max(entryCount, 1) * 2 - 1) << 1;
+		int[] table = new int[capacity];
+		int distinct = 0;
+		for (int entry = 0; entry < entryCount; entry++) {
+			int bucket = findBucket(table, parsed, parsed[entry * ENTRY_SIZE + HASH], entry);
+			if (table[bucket] == 0) {
+				distinct++;
+			}
+			table[bucket] = entry + 1;
+		}
+		this.table = table;
+		this.size = distinct;
+		this.templates = new AtomicReferenceArray<PhraseTemplate>(entryCount);
+	}
+
+	/** Returns the number of distinct keys in the catalog. */
+	public int size() {
+		return size;
+	}
+
+	/** Returns whether the catalog has a pattern for the given key. */
+	public boolean containsKey(String key) {
+		return entry(key) >= 0;
+	}
+
+	/**
+	 * Returns the compiled template for the given key, compiling it on first access.
+	 *
+	 * @throws IllegalArgumentException if the key is not in the catalog or its pattern contains
+	 * any syntax errors.
+	 */
+	public PhraseTemplate get(String key) {
+		int entry = entry(key);
+		if (entry < 0) {
+			throw new IllegalArgumentException("Missing pattern: " + key);
+		}
+		PhraseTemplate template = templates.get(entry);
+		if (template == null) {
+			PhraseTemplate compiled = PhraseTemplate.compile(pattern(entry), delimiters, key, locale);
+			// Threads racing for the same key all end up with the first compiled template.
+			template = templates.compareAndSet(entry, null, compiled) ? compiled : templates.get(entry);
+		}
+		return template;
+	}
+
+	/**
+	 * Returns a new phrase for the template of the given key.
+	 *
+	 * @see #get(String)
+	 */
+	public Phrase phrase(String key) {
+		return Phrase.from(get(key));
+	}
+
+	/** Returns the decoded pattern of the given key, or null if it is not in the catalog. */
+	public String getPattern(String key) {
+		int entry = entry(key);
+		return entry < 0 ? null : pattern(entry);
+	}
+
+	/** Returns the number of entries whose template has been compiled. */
+	int compiledCount() {
+		int count = 0;
+		for (int i = 0; i < templates.length(); i++) {
+			if (templates.get(i) != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private int entry(String key) {
+		int hash = hash(key);
+		int mask = table.length - 1;
+		for (int bucket = hash & mask; ; bucket = (bucket + 1) & mask) {
+			int entry = table[bucket] - 1;
+			if (entry < 0) {
+				return -1;
+			}
+			if (entries[entry * ENTRY_SIZE + HASH] == hash && keyEquals(entry, key)) {
+				return entry;
+			}
+		}
+	}
+
+	/** Returns the bucket holding the key of the given entry, or the free bucket to put it in. */
+	private int findBucket(int[] table, int[] entries, int hash, int entry) {
+		int mask = table.length - 1;
+		for (int bucket = hash & mask; ; bucket = (bucket + 1) & mask) {
+			int other = table[bucket] - 1;
+			if (other < 0 || (entries[other * ENTRY_SIZE + HASH] == hash && sameKey(entries, entry, other))) {
+				return bucket;
+			}
+		}
+	}
+
+	private boolean sameKey(int[] entries, int entry, int other) {
+		int length = entries[entry * ENTRY_SIZE + KEY_LENGTH];
+		int otherLength = entries[other * ENTRY_SIZE + KEY_LENGTH];
+		if (length < 0) {
+			return keyEquals(other, escapedKeys[~length]);
+		} else if (otherLength < 0) {
+			return keyEquals(entry, escapedKeys[~otherLength]);
+		} else if (length != otherLength) {
+			return false;
+		}
+		int start = entries[entry * ENTRY_SIZE + KEY_START];
+		int otherStart = entries[other * ENTRY_SIZE + KEY_START];
+		for (int i = 0; i < length; i++) {
+			if (catalog.get(start + i) != catalog.get(otherStart + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Compares the UTF-8 bytes of the key in the catalog with the given key without encoding it. */
+	private boolean keyEquals(int entry, String key) {
+		int start = entries[entry * ENTRY_SIZE + KEY_START];
+		int length = entries[entry * ENTRY_SIZE + KEY_LENGTH];
+		if (length < 0) {
+			return escapedKeys[~length].equals(key);
+		}
+		if (length != key.length()) {
+			return Arrays.equals(key.getBytes(StandardCharsets.UTF_8), bytes(catalog, start, start + length));
+		}
+		for (int i = 0; i < length; i++) {
+			char c = key.charAt(i);
+			if (c >= 0x80 || catalog.get(start + i) != c) {
+				// Equal lengths with a multi byte character can't match; neither can a differing byte.
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String pattern(int entry) {
+		int start = entries[entry * ENTRY_SIZE + VALUE_START];
+		int end = entries[entry * ENTRY_SIZE + VALUE_END];
+		return unescape(new String(bytes(catalog, start, end), StandardCharsets.UTF_8));
+	}
+
+	private static byte[] bytes(ByteBuffer catalog, int start, int end) {
+		// Work on a duplicate; the position of the shared buffer must never change.
+		ByteBuffer slice = catalog.duplicate();
+		// Through Buffer: ByteBuffer.position(int) only exists since Java 9.
+		((Buffer) slice).position(start);
+		byte[] bytes = new byte[end - start];
+		slice.get(bytes);
+		return bytes;
+	}
+
+	/** Hashes the UTF-8 bytes of the given key, as {@link Indexer} hashes the keys in the catalog. */
+	private static int hash(String key) {
+		int hash = 0;
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c >= 0x80) {
+				return hash(key.getBytes(StandardCharsets.UTF_8));
+			}
+			hash = 31 * hash + c;
+		}
+		return spread(hash);
+	}
+
+	private static int hash(byte[] key) {
+		int hash = 0;
+		for (byte b : key) {
+			hash = 31 * hash + (b & 0xff);
+		}
+		return spread(hash);
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/** Resolves the escapes and line continuations of a raw pattern. */
+	private static String unescape(String raw) {
+		int backslash = raw.indexOf('\\');
+		if (backslash < 0) {
+			return raw;
+		}
+		StringBuilder sb = new StringBuilder(raw.length());
+		sb.append(raw, 0, backslash);
+		for (int i = backslash; i < raw.length(); i++) {
+			char c = raw.charAt(i);
+			if (c != '\\' || i + 1 == raw.length()) {
+				sb.append(c);
+				continue;
+			}
+			c = raw.charAt(++i);
+			switch (c) {
+				case 't':
+					sb.append('\t');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'u':
+					if (i + 4 >= raw.length()) {
+						throw new IllegalArgumentException("Malformed \\uXXXX escape: " + raw);
+					}
+					try {
+						sb.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Malformed \\uXXXX escape: " + raw);
+					}
+					i += 4;
+					break;
+				case '\r':
+				case '\n':
+					// A line continuation; skip the line break and the indentation of the next line.
+					if (c == '\r' && i + 1 < raw.length() && raw.charAt(i + 1) == '\n') {
+						i++;
+					}
+					while (i + 1 < raw.length() && isWhitespace(raw.charAt(i + 1))) {
+						i++;
+					}
+					break;
+				default:
+					sb.append(c);
+					break;
+			}
+		}
+		return sb.toString();
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\t' || c == '\f';
+	}
+
+	/** Finds the entries of a catalog in a single pass over its bytes. */
+	private static final class Indexer {
+
+		private final ByteBuffer catalog;
+		private final int limit;
+		private int pos;
+
+		private int[] entries = new int[16 * ENTRY_SIZE];
+		private int length;
+		private final List<String> escapedKeys = new ArrayList<String>();
+
+		Indexer(ByteBuffer catalog) {
+			this.catalog = catalog;
+			this.limit = catalog.limit();
+		}
+
+		void run() {
+			while (pos < limit) {
+				skipWhitespace();
+				if (pos == limit) {
+					break;
+				}
+				int c = catalog.get(pos);
+				if (c == '\n' || c == '\r') {
+					pos++;
+				} else if (c == '#' || c == '!') {
+					skipComment();
+				} else {
+					entry();
+				}
+			}
+		}
+
+		private void entry() {
+			int keyStart = pos;
+			int hash = 0;
+			boolean escaped = false;
+			while (pos < limit) {
+				int c = catalog.get(pos) & 0xff;
+				if (c == '=' || c == ':' || isWhitespace(c) || c == '\n' || c == '\r') {
+					break;
+				}
+				if (c == '\\' && pos + 1 < limit) {
+					// An escaped delimiter belongs to the key.
+					escaped = true;
+					c = catalog.get(++pos) & 0xff;
+				}
+				hash = 31 * hash + c;
+				pos++;
+			}
+			int keyLength = pos - keyStart;
+			if (escaped) {
+				String key = unescape(new String(bytes(catalog, keyStart, pos), StandardCharsets.UTF_8));
+				hash = PhraseBundle.hash(key);
+				keyLength = ~escapedKeys.size();
+				escapedKeys.add(key);
+			} else {
+				hash = spread(hash);
+			}
+			skipWhitespace();
+			if (pos < limit && (catalog.get(pos) == '=' || catalog.get(pos) == ':')) {
+				pos++;
+				skipWhitespace();
+			}
+			int valueStart = pos;
+			skipLine();
+			int valueEnd = pos;
+			while (valueEnd > valueStart && (catalog.get(valueEnd - 1) == '\n' || catalog.get(valueEnd - 1) == '\r')) {
+				valueEnd--;
+			}
+			add(keyStart, keyLength, valueStart, valueEnd, hash);
+		}
+
+		/** Moves to the end of the current line; comments can't be continued. */
+		private void skipComment() {
+			while (pos < limit && catalog.get(pos) != '\n' && catalog.get(pos) != '\r') {
+				pos++;
+			}
+		}
+
+		/** Moves past the end of the current logical line, following line continuations. */
+		private void skipLine() {
+			int backslashes = 0;
+			while (pos < limit) {
+				int c = catalog.get(pos++);
+				if (c == '\n' || c == '\r') {
+					if (c == '\r' && pos < limit && catalog.get(pos) == '\n') {
+						pos++;
+					}
+					if (backslashes % 2 == 0) {
+						return;
+					}
+					backslashes = 0;
+				} else if (c == '\\') {
+					backslashes++;
+				} else {
+					backslashes = 0;
+				}
+			}
+		}
+
+		private void skipWhitespace() {
+			while (pos < limit && isWhitespace(catalog.get(pos))) {
+				pos++;
+			}
+		}
+
+		private void add(int keyStart, int keyLength, int valueStart, int valueEnd, int hash) {
+			if (length + ENTRY_SIZE > entries.length) {
+				entries = Arrays.copyOf(entries, entries.length * 2);
+			}
+			entries[length + KEY_START] = keyStart;
+			entries[length + KEY_LENGTH] = keyLength;
+			entries[length + VALUE_START] = valueStart;
+			entries[length + VALUE_END] = valueEnd;
+			entries[length + HASH] = hash;
+			length += ENTRY_SIZE;
+		}
+	}
+
+}
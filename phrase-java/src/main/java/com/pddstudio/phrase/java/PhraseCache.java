@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import com.pddstudio.phrase.java.Phrase.KeyIdentifier;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A concurrent, size-bounded cache of compiled {@link PhraseTemplate}s keyed by pattern and
+ * {@link Delimiters}. {@link Phrase#from(CharSequence)},
+ * {@link Phrase#from(CharSequence, KeyIdentifier)} and {@link Phrase#from(CharSequence, Delimiters)}
+ * look up their templates here, so a pattern is only parsed again after it has been evicted.
+ * <p>
+ * Entries are evicted in least-recently-used order. The cache is split into independently locked
+ * segments to keep contention low; each segment holds an equal share of the maximum size, so
+ * eviction is LRU per segment. Patterns are compiled outside of any lock.
+ */
+public final class PhraseCache {
+
+	/** The maximum size of the cache used by {@link Phrase} unless configured otherwise. */
+	public static final int DEFAULT_MAXIMUM_SIZE = 512;
+
+	private static final int MAX_SEGMENTS = 16;
+
+	private final int maximumSize;
+	private final Segment[] segments;
+
+	/**
+	 * Creates a cache holding at most {@code maximumSize} templates; a size of 0 disables caching.
+	 *
+	 * @throws IllegalArgumentException if maximumSize is negative.
+	 */
+	public PhraseCache(int maximumSize) {
+		if (maximumSize < 0) {
+			throw new IllegalArgumentException("Negative maximum size: " + maximumSize);
+		}
+		this.maximumSize = maximumSize;
+
+		int segmentCount = 1;
+		while (segmentCount < MAX_SEGMENTS && segmentCount * 2 * 8 <= maximumSize) {
+			segmentCount *= 2;
+		}
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			// Spread the remainder over the first segments so the capacities add up exactly.
+			int capacity = maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0);
+			segments[i] = new Segment(capacity);
+		}
+	}
+
+	/** Returns the maximum number of templates this cache holds. */
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Returns the compiled template for the given pattern, compiling and caching it on a miss.
+	 *
+	 * @throws IllegalArgumentException if pattern contains any syntax errors.
+	 */
+	public PhraseTemplate get(CharSequence pattern, KeyIdentifier keyIdentifier) {
+		return get(pattern, keyIdentifier.getDelimiters());
+	}
+
+	/**
+	 * Returns the compiled template for the given pattern with the given delimiters, compiling and
+	 * caching it on a miss.
+	 *
+	 * @throws IllegalArgumentException if pattern contains any syntax errors.
+	 */
+	public PhraseTemplate get(CharSequence pattern, Delimiters delimiters) {
+		Key key = new Key(pattern.toString(), delimiters);
+		Segment segment = segments[(key.hashCode() & 0x7fffffff) % segments.length];
+
+		PhraseTemplate template = segment.get(key);
+		if (template != null) {
+			return template;
+		}
+
+		long start = System.nanoTime();
+		template = PhraseTemplate.compile(key.pattern, delimiters);
+		return segment.put(key, template, System.nanoTime() - start);
+	}
+
+	/** Returns the number of templates currently cached. */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/** Discards all cached templates; statistics are kept. */
+	public void invalidateAll() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/** Returns a snapshot of the statistics accumulated since this cache was created. */
+	public Stats stats() {
+		long hits = 0, misses = 0, evictions = 0, loadTime = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				hits += segment.hitCount;
+				misses += segment.missCount;
+				evictions += segment.evictionCount;
+				loadTime += segment.totalLoadTime;
+			}
+		}
+		return new Stats(hits, misses, evictions, loadTime);
+	}
+
+	@Override
+	public String toString() {
+		return "PhraseCache[maximumSize=" + maximumSize + ", size=" + size() + ", " + stats() + "]";
+	}
+
+	/** An immutable snapshot of the counters of a {@link PhraseCache}. */
+	public static final class Stats {
+
+		private final long hitCount;
+		private final long missCount;
+		private final long evictionCount;
+		private final long totalLoadTime;
+
+		Stats(long hitCount, long missCount, long evictionCount, long totalLoadTime) {
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+			this.evictionCount = evictionCount;
+			this.totalLoadTime = totalLoadTime;
+		}
+
+		/** Returns the number of lookups that found a compiled template. */
+		public long getHitCount() {
+			return hitCount;
+		}
+
+		/** Returns the number of lookups that had to compile the pattern. */
+		public long getMissCount() {
+			return missCount;
+		}
+
+		/** Returns the number of templates dropped to stay within the maximum size. */
+		public long getEvictionCount() {
+			return evictionCount;
+		}
+
+		/** Returns the total time in nanoseconds spent compiling patterns on misses. */
+		public long getTotalLoadTime() {
+			return totalLoadTime;
+		}
+
+		/** Returns the ratio of hits to lookups, or 1.0 if there were no lookups yet. */
+		public double getHitRate() {
+			long requests = hitCount + missCount;
+			return requests == 0 ? 1.0 : (double) hitCount / requests;
+		}
+
+		/** Returns the average time in nanoseconds spent compiling a pattern on a miss. */
+		public double getAverageLoadPenalty() {
+			return missCount == 0 ? 0.0 : (double) totalLoadTime / missCount;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+					+ ", totalLoadTime=" + totalLoadTime + "ns";
+		}
+	}
+
+	/** An access-ordered map guarded by its own monitor. */
+	private static final class Segment extends LinkedHashMap<Key, PhraseTemplate> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		private long hitCount;
+		private long missCount;
+		private long evictionCount;
+		private long totalLoadTime;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		synchronized PhraseTemplate get(Key key) {
+			PhraseTemplate template = super.get(key);
+			if (template != null) {
+				hitCount++;
+			}
+			return template;
+		}
+
+		/** Records a miss and returns the cached template, which wins if another thread raced us. */
+		synchronized PhraseTemplate put(Key key, PhraseTemplate template, long loadTime) {
+			missCount++;
+			totalLoadTime += loadTime;
+			if (capacity == 0) {
+				return template;
+			}
+			PhraseTemplate existing = super.get(key);
+			if (existing != null) {
+				return existing;
+			}
+			super.put(key, template);
+			return template;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, PhraseTemplate> eldest) {
+			if (size() > capacity) {
+				evictionCount++;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static final class Key {
+
+		private final String pattern;
+		private final Delimiters delimiters;
+		private final int hash;
+
+		Key(String pattern, Delimiters delimiters) {
+			this.pattern = pattern;
+			this.delimiters = delimiters;
+			this.hash = 31 * pattern.hashCode() + delimiters.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o instanceof Key) {
+				Key key = (Key) o;
+				return (delimiters == key.delimiters || delimiters.equals(key.delimiters)) && pattern.equals(key.pattern);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import java.util.Set;
+
+/**
+ * Receives timings and counts for the parses and renders of all {@link PhraseTemplate}s, so that
+ * latency can be attributed to single templates, see {@link PhraseTemplate#getName()}. Canonical
+ * usage:
+ * <pre>
+ *   PhraseMetricsRegistry registry = new PhraseMetricsRegistry();
+ *   PhraseMetrics.install(registry);
+ *   ...
+ *   registry.dump(System.out);
+ * </pre>
+ * Every method does nothing by default, so implementations only override what they need. Until
+ * an implementation is installed the {@link #NOOP} instance is used and templates don't even
+ * read the clock. Methods are called on the rendering threads and must be thread-safe and cheap.
+ */
+public abstract class PhraseMetrics {
+
+	/** Records nothing; installed by default. */
+	public static final PhraseMetrics NOOP = new PhraseMetrics() {
+	};
+
+	/** Unnamed templates are recorded under this many chars of their pattern. */
+	public static final int MAX_PATTERN_NAME_LENGTH = 64;
+
+	private static volatile PhraseMetrics installed = NOOP;
+
+	/** Installs the metrics all templates report to; pass {@link #NOOP} to stop recording. */
+	public static void install(PhraseMetrics metrics) {
+		if (metrics == null) {
+			throw new IllegalArgumentException("Null metrics");
+		}
+		installed = metrics;
+	}
+
+	/** Returns the metrics all templates report to. */
+	public static PhraseMetrics installed() {
+		return installed;
+	}
+
+	/**
+	 * Returns the name to record the given template under: its name, or the first
+	 * {@value #MAX_PATTERN_NAME_LENGTH} chars of its pattern if it has none, so that large
+	 * patterns don't bloat what is recorded.
+	 */
+	protected static String templateName(PhraseTemplate template) {
+		String name = template.getName();
+		if (name == null) {
+			String pattern = template.toString();
+			name = pattern.length() > MAX_PATTERN_NAME_LENGTH ? pattern.substring(0, MAX_PATTERN_NAME_LENGTH) : pattern;
+		}
+		return name;
+	}
+
+	/** Called after a pattern has been parsed into the given template. */
+	public void parsed(PhraseTemplate template, long nanos) {
+	}
+
+	/**
+	 * Called after the given template has been rendered to text.
+	 *
+	 * @param chars the number of chars produced, or -1 if the text was streamed to an
+	 * {@link Appendable} and not counted.
+	 */
+	public void rendered(PhraseTemplate template, long nanos, int chars) {
+	}
+
+	/**
+	 * Called when a {@link Phrase} of the given template returns the text of its last render
+	 * because no value was replaced since.
+	 */
+	public void reused(PhraseTemplate template, int chars) {
+	}
+
+	/** Called after the given template has been rendered to UTF-8 bytes. */
+	public void encoded(PhraseTemplate template, long nanos, long bytes) {
+	}
+
+	/** Called when a render of the given template fails because keys have no value. */
+	public void missingKeys(PhraseTemplate template, Set<String> keys) {
+	}
+
+}
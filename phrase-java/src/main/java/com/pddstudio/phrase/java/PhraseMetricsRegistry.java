@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import com.pddstudio.phrase.java.commons.metrics.Latency;
+import com.pddstudio.phrase.java.commons.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PhraseMetrics} which keep counters and latency histograms per template in memory and
+ * hand out snapshots of them. Templates are told apart by {@link PhraseTemplate#getName()}, or by
+ * the start of their pattern if they have no name. At most {@link #MAX_TEMPLATES} templates are
+ * tracked separately; the rest are added up under {@link #OTHER_TEMPLATES}.
+ * <p>
+ * Recording takes a few atomic increments and no locks.
+ */
+public final class PhraseMetricsRegistry extends PhraseMetrics {
+
+	public static final int MAX_TEMPLATES = 1024;
+
+	/** The name the templates beyond {@link #MAX_TEMPLATES} are recorded under. */
+	public static final String OTHER_TEMPLATES = "(other)";
+
+	private final ConcurrentMap<String, TemplateMetrics> templates = new ConcurrentHashMap<String, TemplateMetrics>();
+
+	@Override
+	public void parsed(PhraseTemplate template, long nanos) {
+		TemplateMetrics metrics = metrics(template);
+		metrics.parses.record(nanos);
+	}
+
+	@Override
+	public void rendered(PhraseTemplate template, long nanos, int chars) {
+		TemplateMetrics metrics = metrics(template);
+		metrics.renders.record(nanos);
+		if (chars > 0) {
+			metrics.chars.addAndGet(chars);
+		}
+	}
+
+	@Override
+	public void reused(PhraseTemplate template, int chars) {
+		metrics(template).reuses.incrementAndGet();
+	}
+
+	@Override
+	public void encoded(PhraseTemplate template, long nanos, long bytes) {
+		TemplateMetrics metrics = metrics(template);
+		metrics.renders.record(nanos);
+		metrics.bytes.addAndGet(bytes);
+	}
+
+	@Override
+	public void missingKeys(PhraseTemplate template, Set<String> keys) {
+		metrics(template).missingKeyFailures.incrementAndGet();
+	}
+
+	/** Returns a snapshot of every template, sorted by name. */
+	public Map<String, Snapshot> snapshot() {
+		Map<String, Snapshot> snapshot = new TreeMap<String, Snapshot>();
+		for (Map.Entry<String, TemplateMetrics> entry : templates.entrySet()) {
+			TemplateMetrics metrics = entry.getValue();
+			snapshot.put(entry.getKey(), new Snapshot(metrics.parses.snapshot(), metrics.renders.snapshot(),
+					metrics.reuses.get(), metrics.chars.get(), metrics.bytes.get(), metrics.missingKeyFailures.get()));
+		}
+		return snapshot;
+	}
+
+	/** Writes a snapshot of every template, one line each. */
+	public void dump(Appendable target) throws IOException {
+		for (Map.Entry<String, Snapshot> entry : snapshot().entrySet()) {
+			target.append(entry.getKey()).append(": ").append(entry.getValue().toString()).append('\n');
+		}
+	}
+
+	/** Forgets everything recorded so far. */
+	public void clear() {
+		templates.clear();
+	}
+
+	private TemplateMetrics metrics(PhraseTemplate template) {
+		String name = templateName(template);
+		TemplateMetrics metrics = templates.get(name);
+		if (metrics == null) {
+			if (templates.size() >= MAX_TEMPLATES) {
+				name = OTHER_TEMPLATES;
+			}
+			metrics = new TemplateMetrics();
+			TemplateMetrics raced = templates.putIfAbsent(name, metrics);
+			if (raced != null) {
+				metrics = raced;
+			}
+		}
+		return metrics;
+	}
+
+	private static final class TemplateMetrics {
+		final LatencyHistogram parses = new LatencyHistogram();
+		final LatencyHistogram renders = new LatencyHistogram();
+		final AtomicLong reuses = new AtomicLong();
+		final AtomicLong chars = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicLong missingKeyFailures = new AtomicLong();
+	}
+
+	/** The counters of a single template at the time of the snapshot. */
+	public static final class Snapshot {
+
+		private final Latency parseLatency;
+		private final Latency renderLatency;
+		private final long reuses;
+		private final long chars;
+		private final long bytes;
+		private final long missingKeyFailures;
+
+		Snapshot(Latency parseLatency, Latency renderLatency, long reuses, long chars, long bytes, long missingKeyFailures) {
+			this.parseLatency = parseLatency;
+			this.renderLatency = renderLatency;
+			this.reuses = reuses;
+			this.chars = chars;
+			this.bytes = bytes;
+			this.missingKeyFailures = missingKeyFailures;
+		}
+
+		public Latency getParseLatency() {
+			return parseLatency;
+		}
+
+		/** Returns the latency of the renders to text and to bytes. */
+		public Latency getRenderLatency() {
+			return renderLatency;
+		}
+
+		/** Returns the number of times a phrase returned the text of its last render instead of rendering. */
+		public long getReuses() {
+			return reuses;
+		}
+
+		/** Returns the number of chars produced by renders to text which were counted. */
+		public long getChars() {
+			return chars;
+		}
+
+		/** Returns the number of bytes produced by renders to UTF-8. */
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getMissingKeyFailures() {
+			return missingKeyFailures;
+		}
+
+		@Override
+		public String toString() {
+			return "parses=[" + parseLatency + "], renders=[" + renderLatency + "], reuses=" + reuses + ", chars=" + chars
+					+ ", bytes=" + bytes + ", missingKeyFailures=" + missingKeyFailures;
+		}
+	}
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import com.pddstudio.phrase.java.Phrase.KeyIdentifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves localized messages to compiled templates. Canonical usage:
+ * <pre>
+ *   PhraseResolver messages = PhraseResolver.builder()
+ *       .add(Locale.ROOT, PhraseBundle.open(Paths.get("messages.properties")))
+ *       .add(Locale.GERMAN, PhraseBundle.open(Paths.get("messages_de.properties")))
+ *       .build();
+ *
+ *   CharSequence greeting = messages.phrase("greeting", locale).put("name", name).format();
+ * </pre>
+ * A message is looked up along the fallback chain of the requested locale, e.g. {@code de_AT},
+ * then {@code de}, then {@link Locale#ROOT}, skipping locales without messages. The chain of
+ * every locale added is built once, and every message is resolved and compiled once per chain;
+ * afterwards a lookup is a hit in a concurrent map of the requested locale followed by a hit in
+ * the concurrent map of templates of its chain. Requested locales share the chain of the most
+ * specific locale they fall back to, and only the first {@value #MAX_REQUESTED_LOCALES} are
+ * remembered, so locales taken from requests, e.g. from Accept-Language headers, can't grow a
+ * resolver without bounds.
+ * <p>
+ * Resolvers are immutable and may be shared between threads.
+ */
+public final class PhraseResolver {
+
+	/** The number of requested locales whose chains are remembered. */
+	static final int MAX_REQUESTED_LOCALES = 256;
+
+	/** The fallback chain starting at every locale added to the builder. */
+	private final Map<Locale, Chain> chains;
+
+	/** The chain of locales without messages along their whole fallback chain. */
+	private final Chain emptyChain = new Chain(new Catalog[0]);
+
+	/** The chain of the first requested locales, at most {@link #MAX_REQUESTED_LOCALES} of them. */
+	private final ConcurrentMap<Locale, Chain> requestedLocales = new ConcurrentHashMap<Locale, Chain>();
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private PhraseResolver(Map<Locale, Catalog> catalogs) {
+		Map<Locale, Chain> chains = new HashMap<Locale, Chain>();
+		for (Catalog head : catalogs.values()) {
+			List<Catalog> chain = new ArrayList<Catalog>();
+			for (Locale candidate : candidates(head.locale)) {
+				Catalog catalog = catalogs.get(candidate);
+				if (catalog != null) {
+					chain.add(catalog);
+				}
+			}
+			chains.put(head.locale, new Chain(chain.toArray(new Catalog[chain.size()])));
+		}
+		this.chains = chains;
+	}
+
+	/**
+	 * Returns the compiled template of the given message for the given locale, falling back to
+	 * less specific locales.
+	 *
+	 * @throws IllegalArgumentException if no locale in the fallback chain has the message, or
+	 * if its pattern contains any syntax errors.
+	 */
+	public PhraseTemplate get(String messageId, Locale locale) {
+		PhraseTemplate template = chain(locale).get(messageId);
+		if (template == null) {
+			throw new IllegalArgumentException("Missing message: " + messageId + " for locale " + locale);
+		}
+		return template;
+	}
+
+	/**
+	 * Returns a new phrase for the given message in the given locale.
+	 *
+	 * @see #get(String, Locale)
+	 */
+	public Phrase phrase(String messageId, Locale locale) {
+		return Phrase.from(get(messageId, locale));
+	}
+
+	/** Returns the locales searched for messages of the given locale, most specific first. */
+	public List<Locale> getFallbackChain(Locale locale) {
+		List<Locale> chain = new ArrayList<Locale>();
+		for (Catalog catalog : chain(locale).catalogs) {
+			chain.add(catalog.locale);
+		}
+		return chain;
+	}
+
+	/** Returns the chain of the most specific locale with messages the given locale falls back to. */
+	private Chain chain(Locale locale) {
+		Chain chain = requestedLocales.get(locale);
+		if (chain != null) {
+			return chain;
+		}
+		chain = emptyChain;
+		for (Locale candidate : candidates(locale)) {
+			Chain candidateChain = chains.get(candidate);
+			if (candidateChain != null) {
+				chain = candidateChain;
+				break;
+			}
+		}
+		// The size is only checked, not enforced, so racing threads may add a few more.
+		if (requestedLocales.size() < MAX_REQUESTED_LOCALES) {
+			requestedLocales.putIfAbsent(locale, chain);
+		}
+		return chain;
+	}
+
+	/** Returns the given locale followed by ever less specific locales, ending with the root locale. */
+	private static List<Locale> candidates(Locale locale) {
+		List<Locale> candidates = new ArrayList<Locale>(4);
+		String language = locale.getLanguage();
+		String country = locale.getCountry();
+		String variant = locale.getVariant();
+		if (variant.length() > 0) {
+			candidates.add(new Locale(language, country, variant));
+		}
+		if (country.length() > 0) {
+			candidates.add(new Locale(language, country));
+		}
+		if (language.length() > 0) {
+			candidates.add(new Locale(language));
+		}
+		candidates.add(Locale.ROOT);
+		return candidates;
+	}
+
+	/** Collects the messages of every locale. */
+	public static final class Builder {
+
+		private final Map<Locale, Catalog> catalogs = new LinkedHashMap<Locale, Catalog>();
+		private Delimiters delimiters = KeyIdentifier.CURLY_BRACKETS.getDelimiters();
+
+		private Builder() {
+		}
+
+		/** Sets the key identifier used to compile the patterns added as maps. */
+		public Builder keyIdentifier(KeyIdentifier keyIdentifier) {
+			return delimiters(keyIdentifier.getDelimiters());
+		}
+
+		/** Sets the delimiters used to compile the patterns added as maps. */
+		public Builder delimiters(Delimiters delimiters) {
+			this.delimiters = delimiters;
+			return this;
+		}
+
+		/**
+		 * Adds the messages of the given locale from a bundle, which compiles them; open the bundle
+		 * for the same locale to get its plural rules.
+		 */
+		public Builder add(Locale locale, PhraseBundle bundle) {
+			return add(new BundleCatalog(locale, bundle));
+		}
+
+		/**
+		 * Adds the messages of the given locale as a map from message id to pattern. The patterns
+		 * are compiled right away, for the given locale.
+		 *
+		 * @throws IllegalArgumentException if a pattern contains any syntax errors.
+		 */
+		public Builder add(Locale locale, Map<String, String> patterns) {
+			Map<String, PhraseTemplate> templates = new HashMap<String, PhraseTemplate>();
+			for (Map.Entry<String, String> entry : patterns.entrySet()) {
+				templates.put(entry.getKey(), PhraseTemplate.compile(entry.getValue(), delimiters, entry.getKey(), locale));
+			}
+			return add(new MapCatalog(locale, templates));
+		}
+
+		private Builder add(Catalog catalog) {
+			if (catalogs.containsKey(catalog.locale)) {
+				throw new IllegalArgumentException("Duplicate locale: " + catalog.locale);
+			}
+			catalogs.put(catalog.locale, catalog);
+			return this;
+		}
+
+		public PhraseResolver build() {
+			return new PhraseResolver(new HashMap<Locale, Catalog>(catalogs));
+		}
+	}
+
+	/** A fallback chain of catalogs and the templates resolved along it so far. */
+	private static final class Chain {
+		private final Catalog[] catalogs;
+		private final ConcurrentMap<String, PhraseTemplate> templates = new ConcurrentHashMap<String, PhraseTemplate>();
+
+		Chain(Catalog[] catalogs) {
+			this.catalogs = catalogs;
+		}
+
+		/** Returns the template of the given message, or null if no catalog of the chain has it. */
+		PhraseTemplate get(String messageId) {
+			PhraseTemplate template = templates.get(messageId);
+			if (template == null) {
+				for (Catalog catalog : catalogs) {
+					template = catalog.get(messageId);
+					if (template != null) {
+						break;
+					}
+				}
+				if (template == null) {
+					return null;
+				}
+				PhraseTemplate raced = templates.putIfAbsent(messageId, template);
+				if (raced != null) {
+					template = raced;
+				}
+			}
+			return template;
+		}
+	}
+
+	/** The messages of a single locale. */
+	private abstract static class Catalog {
+		final Locale locale;
+
+		Catalog(Locale locale) {
+			this.locale = locale;
+		}
+
+		/** Returns the compiled template of the given message, or null if there is no such message. */
+		abstract PhraseTemplate get(String messageId);
+	}
+
+	private static final class BundleCatalog extends Catalog {
+		private final PhraseBundle bundle;
+
+		BundleCatalog(Locale locale, PhraseBundle bundle) {
+			super(locale);
+			this.bundle = bundle;
+		}
+
+		@Override
+		PhraseTemplate get(String messageId) {
+			return bundle.containsKey(messageId) ? bundle.get(messageId) : null;
+		}
+	}
+
+	private static final class MapCatalog extends Catalog {
+		private final Map<String, PhraseTemplate> templates;
+
+		MapCatalog(Locale locale, Map<String, PhraseTemplate> templates) {
+			super(locale);
+			this.templates = templates;
+		}
+
+		@Override
+		PhraseTemplate get(String messageId) {
+			return templates.get(messageId);
+		}
+	}
+
+}
@@ -0,0 +1,2149 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import com.pddstudio.phrase.java.Phrase.KeyIdentifier;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The compiled, immutable form of a {@link Phrase} pattern. Canonical usage:
+ * <pre>
+ *   PhraseTemplate template = PhraseTemplate.compile("Hi {first_name}, you are {age} years old.");
+ *
+ *   // later, on any thread
+ *   CharSequence formatted = template.format(template.newBindings()
+ *       .put("first_name", firstName)
+ *       .put("age", age));
+ * </pre>
+ * A template is parsed exactly once and never modified afterwards, so a single instance may be
+ * shared and formatted by any number of threads concurrently without locking. All per-render
+ * state lives in {@link Bindings}, which are cheap to create and must not be shared between
+ * threads while they are being filled.
+ * <p>
+ * Patterns may select one of several forms by a count, e.g.
+ * {@code "{count, plural, =0 {no items} one {# item} other {# items}}"}, using the brackets of
+ * the key identifier. Forms may hold keys and further constructs; '#' stands for the count. The
+ * forms are resolved into a table while parsing, so rendering picks one without any lookups by
+ * name. The plural categories are those of the locale the template is compiled for.
+ * <p>
+ * Numbers may be given a format, e.g. {@code "{amount, number, #,##0.00}"}: '0' for required
+ * digits, '#' for optional digits, ',' for grouping, '.' for the fraction and a trailing '%',
+ * rounded half-even like {@link java.text.DecimalFormat}; "integer" and "percent" name the usual
+ * formats. Formats are parsed while compiling, with the separators of the template's locale, and
+ * write their digits without creating a formatter per value.
+ * <p>
+ * Frequently rendered templates can opt into a generated renderer with {@link #specialize()}.
+ */
+public final class PhraseTemplate {
+
+	/** The unmodified original pattern. */
+	private final String pattern;
+
+	/** The delimiters of keys. */
+	private final Delimiters delimiters;
+
+	/** The name metrics are recorded under, or null. */
+	private final String name;
+
+	/** The locale whose plural rules and separators plural and number constructs use. */
+	private final Locale locale;
+
+	/** All keys parsed from the original pattern, sans braces. */
+	private final Set<String> keys;
+
+	/** The slot of every key, in order of first appearance; slot numbers are array indices. */
+	private final Map<String, Slot> slotsByKey;
+	private final Slot[] slots;
+
+	/** The segments parsed from the original pattern, in pattern order. */
+	private final Segment[] segments;
+
+	/** The number of characters contributed by literal segments to every formatted result. */
+	private final int literalLength;
+
+	/**
+	 * The UTF-8 encoding of every literal segment, with null for key segments; encoded on the
+	 * first byte oriented render so that templates only rendered to text don't pay for it.
+	 */
+	private volatile byte[][] utf8Literals;
+
+	/**
+	 * The length of the latest pooled render, used to size new pooled buffers. Racy on purpose;
+	 * any recent value is a good enough estimate.
+	 */
+	private int observedLength;
+
+	/** The generated renderer installed by {@link #specialize()}, or null to walk the segments. */
+	private volatile MethodHandle renderer;
+
+	/** Whether this template was made by {@link #union}, so its bindings may render other templates. */
+	private final boolean union;
+
+	/** The slots of the union whose bindings were rendered last, see {@link #layoutSlots}. */
+	private volatile LayoutSlots layoutSlots;
+
+	/** The binders of the classes bound; created on first use. */
+	private volatile ClassCache<BeanBinder> beanBinders;
+
+	/**
+	 * Compiles the given pattern using {@link KeyIdentifier#CURLY_BRACKETS}; pattern must be non-null.
+	 *
+	 * @throws IllegalArgumentException if pattern contains any syntax errors.
+	 */
+	public static PhraseTemplate compile(CharSequence pattern) {
+		return compile(pattern, KeyIdentifier.CURLY_BRACKETS);
+	}
+
+	/**
+	 * Compiles the given pattern; pattern must be non-null.
+	 *
+	 * @throws IllegalArgumentException if pattern contains any syntax errors.
+	 */
+	public static PhraseTemplate compile(CharSequence pattern, KeyIdentifier keyIdentifier) {
+		return compile(pattern, keyIdentifier, null);
+	}
+
+	/**
+	 * Compiles the given pattern under a name, such as its key in a catalog, which
+	 * {@link PhraseMetrics} are recorded under; pattern must be non-null, name may be null.
+	 *
+	 * @throws IllegalArgumentException if pattern contains any syntax errors.
+	 */
+	public static PhraseTemplate compile(CharSequence pattern, KeyIdentifier keyIdentifier, String name) {
+		return compile(pattern, keyIdentifier, name, Locale.ROOT);
+	}
+
+	/**
+	 * Compiles the given pattern for the given locale, whose plural rules select the forms of
+	 * plural constructs and whose separators number constructs use; pattern and locale must be
+	 * non-null, name may be null. The root locale selects forms by the rules of English.
+	 *
+	 * @throws IllegalArgumentException if pattern contains any syntax errors.
+	 */
+	public static PhraseTemplate compile(CharSequence pattern, KeyIdentifier keyIdentifier, String name, Locale locale) {
+		return compile(pattern, keyIdentifier.getDelimiters(), name, locale);
+	}
+
+	/**
+	 * Compiles the given pattern with other delimiters, such as {@code "${name}"}; pattern must be
+	 * non-null.
+	 *
+	 * @throws IllegalArgumentException if pattern contains any syntax errors.
+	 */
+	public static PhraseTemplate compile(CharSequence pattern, Delimiters delimiters) {
+		return compile(pattern, delimiters, null, Locale.ROOT);
+	}
+
+	/**
+	 * Compiles the given pattern with other delimiters under a name for the given locale.
+	 *
+	 * @see #compile(CharSequence, KeyIdentifier, String, Locale)
+	 */
+	public static PhraseTemplate compile(CharSequence pattern, Delimiters delimiters, String name, Locale locale) {
+		PhraseMetrics metrics = PhraseMetrics.installed();
+		if (metrics == PhraseMetrics.NOOP) {
+			return new PhraseTemplate(pattern.toString(), delimiters, name, locale);
+		}
+		long start = System.nanoTime();
+		PhraseTemplate template = new PhraseTemplate(pattern.toString(), delimiters, name, locale);
+		metrics.parsed(template, System.nanoTime() - start);
+		return template;
+	}
+
+	/**
+	 * Returns a template holding every key of the given templates, each key once, whose
+	 * {@link #newBindings() bindings} can render any of them. Meant for sets of templates sharing
+	 * many keys, such as the subject and bodies of an email: every value is put and converted once
+	 * and each template only reads the keys it uses. Canonical usage:
+	 * <pre>
+	 *   PhraseTemplate message = PhraseTemplate.union(subject, textBody, htmlBody);
+	 *   ...
+	 *   Bindings bindings = message.newBindings().put("name", name).put("total", total);
+	 *   String subjectText = subject.formatString(bindings);
+	 *   String textBodyText = textBody.formatString(bindings);
+	 * </pre>
+	 * Templates look up where their keys are held in the bindings of a union once and reuse that
+	 * for every render with bindings of the same union, so keep the union and create bindings
+	 * from it for every message. Keys a template needs but the union lacks are reported as
+	 * missing by that template. The union itself renders all of its values back to back.
+	 */
+	public static PhraseTemplate union(PhraseTemplate... templates) {
+		if (templates.length == 0) {
+			throw new IllegalArgumentException("No templates");
+		}
+		Set<String> keys = new LinkedHashSet<String>();
+		for (PhraseTemplate template : templates) {
+			keys.addAll(template.keys);
+		}
+		return new PhraseTemplate(templates[0].delimiters, templates[0].locale, keys);
+	}
+
+	private PhraseTemplate(Delimiters delimiters, Locale locale, Set<String> keys) {
+		StringBuilder unionPattern = new StringBuilder();
+		this.segments = new Segment[keys.size()];
+		this.slotsByKey = new HashMap<String, Slot>();
+		this.slots = new Slot[keys.size()];
+		for (String key : keys) {
+			unionPattern.append(delimiters.getOpen()).append(key).append(delimiters.getClose());
+			Slot slot = new Slot(this, key, slotsByKey.size());
+			slotsByKey.put(key, slot);
+			slots[slot.index] = slot;
+			segments[slot.index] = new KeySegment(slot.index);
+		}
+		this.pattern = unionPattern.toString();
+		this.delimiters = delimiters;
+		this.name = null;
+		this.locale = locale;
+		this.literalLength = 0;
+		this.keys = Collections.unmodifiableSet(keys);
+		this.union = true;
+	}
+
+	private PhraseTemplate(String pattern, Delimiters delimiters, String name, Locale locale) {
+		this.pattern = pattern;
+		this.delimiters = delimiters;
+		this.name = name;
+		this.locale = locale;
+		this.union = false;
+
+		Lexer lexer = new Lexer(pattern, delimiters, locale);
+		List<Segment> parsed = new ArrayList<Segment>();
+		int parsedLiteralLength = 0;
+		Segment prev = null;
+		Segment next;
+		while ((next = lexer.token()) != null) {
+			if (next instanceof LiteralSegment) {
+				LiteralSegment literal = (LiteralSegment) next;
+				parsedLiteralLength += literal.end - literal.start;
+				// An escape is the slice of the pattern holding the open delimiter; fold it into the preceding text.
+				if (prev instanceof LiteralSegment && ((LiteralSegment) prev).end == literal.start) {
+					next = new LiteralSegment(((LiteralSegment) prev).start, literal.end);
+					parsed.set(parsed.size() - 1, next);
+					prev = next;
+					continue;
+				}
+			}
+			parsed.add(next);
+			prev = next;
+		}
+		this.segments = parsed.toArray(new Segment[parsed.size()]);
+		this.literalLength = parsedLiteralLength;
+
+		this.slotsByKey = new HashMap<String, Slot>();
+		this.slots = new Slot[lexer.slotsByKey.size()];
+		for (Map.Entry<String, Integer> entry : lexer.slotsByKey.entrySet()) {
+			Slot slot = new Slot(this, entry.getKey(), entry.getValue());
+			slotsByKey.put(slot.key, slot);
+			slots[slot.index] = slot;
+		}
+		this.keys = Collections.unmodifiableSet(lexer.slotsByKey.keySet());
+	}
+
+	/** Returns the name this template was compiled with, or null. */
+	public String getName() {
+		return name;
+	}
+
+	/** Returns the locale this template was compiled for. */
+	public Locale getLocale() {
+		return locale;
+	}
+
+	/**
+	 * Returns the key identifier this template was compiled with, or null if it was compiled with
+	 * other delimiters.
+	 */
+	public KeyIdentifier getKeyIdentifier() {
+		return delimiters.getKeyIdentifier();
+	}
+
+	/** Returns the delimiters this template was compiled with. */
+	public Delimiters getDelimiters() {
+		return delimiters;
+	}
+
+	/** Returns all keys of this template, sans braces, in order of their first appearance. */
+	public Set<String> getKeys() {
+		return keys;
+	}
+
+	/** Returns true if the given key appears in the pattern. */
+	public boolean hasKey(String key) {
+		return slotsByKey.containsKey(key);
+	}
+
+	/**
+	 * Returns the handle for the given key. Resolve handles once and bind values through them to
+	 * skip the key lookup on every render.
+	 *
+	 * @throws IllegalArgumentException if the key is not in the pattern.
+	 */
+	public Slot slot(String key) {
+		Slot slot = slotsByKey.get(key);
+		if (slot == null) {
+			throw new IllegalArgumentException("Invalid key: " + key);
+		}
+		return slot;
+	}
+
+	/** Returns the binder reading the keys of this template from objects of the given class. */
+	private BeanBinder beanBinder(Class<?> type) {
+		ClassCache<BeanBinder> binders = beanBinders;
+		if (binders == null) {
+			// Racing threads may each create a cache; only a few binders are resolved twice then.
+			binders = new ClassCache<BeanBinder>() {
+				@Override
+				BeanBinder compute(Class<?> type) {
+					return new BeanBinder(type, slots);
+				}
+			};
+			beanBinders = binders;
+		}
+		return binders.get(type);
+	}
+
+	/**
+	 * Generates a renderer specialized for this template and uses it for all further renders into
+	 * {@link StringBuilder}s, including {@link #format(Bindings)}. The renderer is a straight-line
+	 * chain of method handles with every literal of the pattern bound as a constant, which the JIT
+	 * can inline completely.
+	 * <p>
+	 * Generation costs far more than parsing and the renderer holds on to its own copy of the
+	 * literals, so only specialize the hottest templates. If method handles are unavailable or the
+	 * template has too many segments the template silently keeps walking its segments; use
+	 * {@link #isSpecialized()} to find out. Returns this template.
+	 */
+	public PhraseTemplate specialize() {
+		if (renderer == null) {
+			try {
+				renderer = Specializer.generate(pattern, segments);
+			} catch (LinkageError e) {
+				// java.lang.invoke is not available on this platform; keep walking the segments.
+			}
+		}
+		return this;
+	}
+
+	/** Returns true if {@link #specialize()} installed a generated renderer. */
+	public boolean isSpecialized() {
+		return renderer != null;
+	}
+
+	/** Creates a new, empty set of values for a single render of this template. */
+	public Bindings newBindings() {
+		return new Bindings(this);
+	}
+
+	/**
+	 * Returns the text after replacing all keys with the given values. Safe to call concurrently
+	 * as long as each thread uses its own {@link Bindings}.
+	 *
+	 * @throws IllegalArgumentException if any keys are not replaced or if the bindings were
+	 * created by another template.
+	 */
+	public CharSequence format(Bindings bindings) {
+		PhraseMetrics metrics = PhraseMetrics.installed();
+		if (metrics == PhraseMetrics.NOOP) {
+			return formatSegments(bindings);
+		}
+		long start = System.nanoTime();
+		StringBuilder sb = formatSegments(bindings);
+		metrics.rendered(this, System.nanoTime() - start, sb.length());
+		return sb;
+	}
+
+	private StringBuilder formatSegments(Bindings bindings) {
+		int[] layoutSlots = prepare(bindings);
+
+		// Size the buffer for the complete result so that appending never has to grow it.
+		StringBuilder sb = new StringBuilder(formattedLength(bindings, layoutSlots));
+		appendSegments(sb, bindings, layoutSlots);
+		return sb;
+	}
+
+	/** Returns the length of the text of the prepared bindings, or an upper bound for fractional numbers. */
+	private int formattedLength(Bindings bindings, int[] layoutSlots) {
+		int formattedLength = literalLength;
+		for (Segment s : segments) {
+			formattedLength += s.valueLength(bindings, layoutSlots);
+		}
+		return formattedLength;
+	}
+
+	/**
+	 * Returns the text after replacing all keys with the given values.
+	 *
+	 * @see #format(Bindings)
+	 */
+	public String formatString(Bindings bindings) {
+		return format(bindings).toString();
+	}
+
+	/**
+	 * Returns the text after replacing all keys with the given values, rendering it in a buffer
+	 * borrowed from the pool. The returned String is the only allocation of the render once the
+	 * pool holds a buffer large enough.
+	 *
+	 * @see #format(Bindings)
+	 */
+	public String formatString(Bindings bindings, RenderBufferPool pool) {
+		RenderBufferPool.Text text = formatPooled(bindings, pool);
+		try {
+			return text.toString();
+		} finally {
+			text.close();
+		}
+	}
+
+	/**
+	 * Returns the text after replacing all keys with the given values, held in a buffer borrowed
+	 * from the pool. The caller owns the text until closing it, which returns the buffer. Canonical
+	 * usage:
+	 * <pre>
+	 *   try (RenderBufferPool.Text text = template.formatPooled(bindings, pool)) {
+	 *     writer.append(text);
+	 *   }
+	 * </pre>
+	 *
+	 * @throws IllegalArgumentException if any keys are not replaced.
+	 */
+	public RenderBufferPool.Text formatPooled(Bindings bindings, RenderBufferPool pool) {
+		PhraseMetrics metrics = PhraseMetrics.installed();
+		long start = metrics == PhraseMetrics.NOOP ? 0 : System.nanoTime();
+		StringBuilder buffer = pool.acquire(observedLength);
+		try {
+			appendTo(bindings, buffer);
+		} catch (RuntimeException e) {
+			pool.release(buffer);
+			throw e;
+		}
+		observedLength = buffer.length();
+		if (metrics != PhraseMetrics.NOOP) {
+			metrics.rendered(this, System.nanoTime() - start, buffer.length());
+		}
+		return new RenderBufferPool.Text(pool, buffer);
+	}
+
+	/**
+	 * Streams the text after replacing all keys with the given values to {@code target}, slice by
+	 * slice, without building the complete result in memory first.
+	 *
+	 * @throws IllegalArgumentException if any keys are not replaced; nothing is written then.
+	 * @throws IOException if the target fails.
+	 */
+	public void formatTo(Bindings bindings, Appendable target) throws IOException {
+		PhraseMetrics metrics = PhraseMetrics.installed();
+		long start = metrics == PhraseMetrics.NOOP ? 0 : System.nanoTime();
+		if (target instanceof StringBuilder) {
+			appendTo(bindings, (StringBuilder) target);
+		} else {
+			formatTo(bindings, Output.of(target));
+		}
+		if (metrics != PhraseMetrics.NOOP) {
+			metrics.rendered(this, System.nanoTime() - start, -1);
+		}
+	}
+
+	/**
+	 * Streams the text after replacing all keys with the given values to {@code writer}, using
+	 * {@link Writer#write(String, int, int)} for the literal slices of the pattern.
+	 *
+	 * @see #formatTo(Bindings, Appendable)
+	 */
+	public void formatTo(Bindings bindings, Writer writer) throws IOException {
+		PhraseMetrics metrics = PhraseMetrics.installed();
+		long start = metrics == PhraseMetrics.NOOP ? 0 : System.nanoTime();
+		formatTo(bindings, Output.of(writer));
+		if (metrics != PhraseMetrics.NOOP) {
+			metrics.rendered(this, System.nanoTime() - start, -1);
+		}
+	}
+
+	/**
+	 * Encodes the text after replacing all keys with the given values as UTF-8 into
+	 * {@code target}, starting at its position. Works with heap and direct buffers alike. The
+	 * literal slices of the pattern are encoded only once per template.
+	 *
+	 * @return the number of bytes written, e.g. for a Content-Length header.
+	 * @throws IllegalArgumentException if any keys are not replaced; nothing is written then.
+	 * @throws BufferOverflowException if the text does not fit; the position of the target is
+	 * left unchanged then.
+	 */
+	public int formatTo(Bindings bindings, ByteBuffer target) {
+		PhraseMetrics metrics = PhraseMetrics.installed();
+		long startNanos = metrics == PhraseMetrics.NOOP ? 0 : System.nanoTime();
+		int start = target.position();
+		try {
+			encodeTo(bindings, new Utf8Output(target, null));
+		} catch (BufferOverflowException e) {
+			// Called through Buffer, which declares these methods on Java 7 and 8 as well.
+			((Buffer) target).position(start);
+			throw e;
+		} catch (IOException e) {
+			// Only thrown by channels.
+			throw new IllegalStateException(e);
+		}
+		int written = target.position() - start;
+		if (metrics != PhraseMetrics.NOOP) {
+			metrics.encoded(this, System.nanoTime() - startNanos, written);
+		}
+		return written;
+	}
+
+	/**
+	 * Encodes the text after replacing all keys with the given values as UTF-8 and writes it to
+	 * {@code channel}, staging it in {@code buffer} and writing each time the buffer is full, so
+	 * text of any size can be written through a small buffer. The contents of the buffer are
+	 * discarded. The channel should be blocking; a non-blocking channel is written in a loop.
+	 *
+	 * @return the number of bytes written.
+	 * @throws IllegalArgumentException if any keys are not replaced; nothing is written then.
+	 * @throws IOException if the channel fails.
+	 */
+	public long formatTo(Bindings bindings, WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		if (buffer.capacity() < Utf8Output.MAX_BYTES_PER_CODE_POINT) {
+			throw new IllegalArgumentException("Buffer too small: " + buffer.capacity() + " bytes");
+		}
+		PhraseMetrics metrics = PhraseMetrics.installed();
+		long start = metrics == PhraseMetrics.NOOP ? 0 : System.nanoTime();
+		((Buffer) buffer).clear();
+		Utf8Output output = new Utf8Output(buffer, channel);
+		encodeTo(bindings, output);
+		long written = output.finish();
+		if (metrics != PhraseMetrics.NOOP) {
+			metrics.encoded(this, System.nanoTime() - start, written);
+		}
+		return written;
+	}
+
+	/** Appends the text after replacing all keys with the given values to {@code target}. */
+	void appendTo(Bindings bindings, StringBuilder target) {
+		int[] layoutSlots = prepare(bindings);
+		appendSegments(target, bindings, layoutSlots);
+	}
+
+	private void appendSegments(StringBuilder target, Bindings bindings, int[] layoutSlots) {
+		MethodHandle renderer = this.renderer;
+		// The generated renderer reads the slots of this template only.
+		if (renderer != null && layoutSlots == null) {
+			try {
+				renderer.invokeExact(target, bindings);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			return;
+		}
+		for (Segment s : segments) {
+			s.appendTo(target, pattern, bindings, layoutSlots);
+		}
+	}
+
+	private void formatTo(Bindings bindings, Output output) throws IOException {
+		writeSegments(output, bindings, prepare(bindings));
+	}
+
+	private void writeSegments(Output output, Bindings bindings, int[] layoutSlots) throws IOException {
+		for (Segment s : segments) {
+			s.writeTo(output, pattern, bindings, layoutSlots);
+		}
+	}
+
+	private void encodeTo(Bindings bindings, Utf8Output output) throws IOException {
+		int[] layoutSlots = prepare(bindings);
+		byte[][] literals = utf8Literals();
+		for (int i = 0; i < segments.length; i++) {
+			if (literals[i] != null) {
+				output.append(literals[i]);
+			} else {
+				segments[i].writeTo(output, pattern, bindings, layoutSlots);
+			}
+		}
+		output.end();
+	}
+
+	private byte[][] utf8Literals() {
+		byte[][] literals = utf8Literals;
+		if (literals == null) {
+			// Racing threads encode the same bytes; any of the arrays may win.
+			literals = new byte[segments.length][];
+			for (int i = 0; i < segments.length; i++) {
+				if (segments[i] instanceof LiteralSegment) {
+					LiteralSegment literal = (LiteralSegment) segments[i];
+					// Surrogates at either end may pair with a value, so such literals are encoded
+					// along with it.
+					if (literal.start == literal.end || !Character.isSurrogate(pattern.charAt(literal.start))
+							&& !Character.isSurrogate(pattern.charAt(literal.end - 1))) {
+						literals[i] = pattern.substring(literal.start, literal.end).getBytes(StandardCharsets.UTF_8);
+					}
+				}
+			}
+			utf8Literals = literals;
+		}
+		return literals;
+	}
+
+	/** Returns the number of literal and key segments; one entry per segment is tracked by {@link #render}. */
+	int segmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * Renders all segments into the empty target and records the end offset of every segment in
+	 * {@code segmentEnds}, so that {@link #rerender} can later replace single values in place.
+	 * From now on the bindings remember which slots are replaced. The bindings must be created by
+	 * this template.
+	 */
+	Phrase.RenderStats render(Bindings bindings, StringBuilder target, int[] segmentEnds) {
+		PhraseMetrics metrics = PhraseMetrics.installed();
+		long start = metrics == PhraseMetrics.NOOP ? 0 : System.nanoTime();
+		prepare(bindings);
+		bindings.trackChanges();
+		for (int i = 0; i < segments.length; i++) {
+			segments[i].appendTo(target, pattern, bindings, null);
+			segmentEnds[i] = target.length();
+		}
+		if (metrics != PhraseMetrics.NOOP) {
+			metrics.rendered(this, System.nanoTime() - start, target.length());
+		}
+		return new Phrase.RenderStats(true, segments.length, segments.length, target.length());
+	}
+
+	/**
+	 * Brings a target written by {@link #render} up to date, rendering only the key segments whose
+	 * slot was replaced since the last render, or which hold a join or a lazy value, and all plural
+	 * constructs. Every other segment
+	 * keeps its output; only the offsets after a value whose length changed are shifted.
+	 */
+	Phrase.RenderStats rerender(Bindings bindings, StringBuilder target, int[] segmentEnds, StringBuilder scratch) {
+		PhraseMetrics metrics = PhraseMetrics.installed();
+		long startNanos = metrics == PhraseMetrics.NOOP ? 0 : System.nanoTime();
+		prepare(bindings);
+		int segmentsRendered = 0;
+		int charactersWritten = 0;
+		int shift = 0;
+		int start = 0;
+		for (int i = 0; i < segments.length; i++) {
+			int end = segmentEnds[i] + shift;
+			Segment s = segments[i];
+			if (s.isChanged(bindings)) {
+				scratch.setLength(0);
+				s.appendTo(scratch, pattern, bindings, null);
+				shift += replace(target, start, end, scratch);
+				end = start + scratch.length();
+				segmentsRendered++;
+				charactersWritten += scratch.length();
+			}
+			segmentEnds[i] = end;
+			start = end;
+		}
+		bindings.clearChanges();
+		if (metrics != PhraseMetrics.NOOP) {
+			metrics.rendered(this, System.nanoTime() - startNanos, target.length());
+		}
+		return new Phrase.RenderStats(false, segmentsRendered, segments.length, charactersWritten);
+	}
+
+	/**
+	 * Replaces the characters from start to end with the value, moving the tail of the target at
+	 * most once. Returns the change in length.
+	 */
+	private static int replace(StringBuilder target, int start, int end, StringBuilder value) {
+		int oldLength = end - start;
+		int newLength = value.length();
+		int common = Math.min(oldLength, newLength);
+		for (int i = 0; i < common; i++) {
+			target.setCharAt(start + i, value.charAt(i));
+		}
+		if (newLength > oldLength) {
+			target.insert(end, value, common, newLength);
+		} else if (newLength < oldLength) {
+			target.delete(start + common, end);
+		}
+		return newLength - oldLength;
+	}
+
+	/** Returns the raw pattern without expanding keys; only useful for debugging. */
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+	/**
+	 * Makes sure the bindings belong to this template, or to a {@link #union} of it, and have a
+	 * value for every key, then evaluates their lazy values and prepares their nested bindings
+	 * for the coming render.
+	 *
+	 * @return the slots of the union holding the keys of this template, or null if the bindings
+	 * belong to this template.
+	 */
+	private int[] prepare(Bindings bindings) {
+		if (bindings.template != this) {
+			if (!bindings.template.union) {
+				throw new IllegalArgumentException("Bindings belong to another template: " + bindings.template);
+			}
+			return prepareUnion(bindings);
+		}
+		long[] bound = bindings.bound;
+		for (int i = 0; i < bound.length; i++) {
+			if (bound[i] != completeWord(i)) {
+				Set<String> missingKeys = new HashSet<String>();
+				for (Slot slot : slots) {
+					if (!bindings.isBound(slot.index)) {
+						missingKeys.add(slot.key);
+					}
+				}
+				PhraseMetrics.installed().missingKeys(this, missingKeys);
+				throw new IllegalArgumentException("Missing keys: " + missingKeys);
+			}
+		}
+		if (bindings.hasLazyValues || bindings.hasNestedValues) {
+			bindings.prepareValues();
+		}
+		return null;
+	}
+
+	/** Like {@link #prepare}, for bindings of a union; only the keys of this template are looked at. */
+	private int[] prepareUnion(Bindings bindings) {
+		int[] layoutSlots = layoutSlots(bindings.template);
+		Set<String> missingKeys = null;
+		for (int i = 0; i < layoutSlots.length; i++) {
+			if (layoutSlots[i] < 0 || !bindings.isBound(layoutSlots[i])) {
+				if (missingKeys == null) {
+					missingKeys = new HashSet<String>();
+				}
+				missingKeys.add(slots[i].key);
+			}
+		}
+		if (missingKeys != null) {
+			PhraseMetrics.installed().missingKeys(this, missingKeys);
+			throw new IllegalArgumentException("Missing keys: " + missingKeys);
+		}
+		if (bindings.hasLazyValues || bindings.hasNestedValues) {
+			bindings.prepareValues(layoutSlots);
+		}
+		return layoutSlots;
+	}
+
+	/**
+	 * Returns the slot of the given union holding every key of this template, or -1 for keys it
+	 * lacks. Only the slots of the latest union are kept, which is enough for the common case of a
+	 * template rendered with the bindings of a single union.
+	 */
+	private int[] layoutSlots(PhraseTemplate union) {
+		LayoutSlots cached = layoutSlots;
+		if (cached != null && cached.union == union) {
+			return cached.slots;
+		}
+		int[] unionSlots = new int[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			Slot slot = union.slotsByKey.get(slots[i].key);
+			unionSlots[i] = slot != null ? slot.index : -1;
+		}
+		layoutSlots = new LayoutSlots(union, unionSlots);
+		return unionSlots;
+	}
+
+	private static final class LayoutSlots {
+		final PhraseTemplate union;
+		final int[] slots;
+
+		LayoutSlots(PhraseTemplate union, int[] slots) {
+			this.union = union;
+			this.slots = slots;
+		}
+	}
+
+	/** Returns the bits of the given word of a bitset in which every slot is set. */
+	private long completeWord(int word) {
+		int remaining = slots.length - word * 64;
+		return remaining >= 64 ? -1L : (1L << remaining) - 1;
+	}
+
+	/**
+	 * A resolved key of a {@link PhraseTemplate}. Slots are created while parsing and can be used
+	 * with the bindings of the template they were obtained from.
+	 */
+	public static final class Slot {
+
+		private final PhraseTemplate template;
+		private final String key;
+		private final int index;
+
+		private Slot(PhraseTemplate template, String key, int index) {
+			this.template = template;
+			this.key = key;
+			this.index = index;
+		}
+
+		/** Returns the key without braces. */
+		public String getKey() {
+			return key;
+		}
+
+		/** Returns the position of the key among the distinct keys of the template. */
+		public int getIndex() {
+			return index;
+		}
+
+		@Override
+		public String toString() {
+			return key;
+		}
+	}
+
+	/**
+	 * The values for a single render of a {@link PhraseTemplate}. Bindings may be reused for
+	 * several renders of the same template by replacing keys with new values, but they are not
+	 * thread-safe; give every thread its own instance.
+	 * <p>
+	 * Values are stored in flat arrays indexed by {@link Slot}, so binding through a slot neither
+	 * hashes nor allocates. Primitive values are kept unboxed and their digits are only written
+	 * when the template is rendered.
+	 */
+	public static final class Bindings {
+
+		private static final byte KIND_TEXT = 0;
+		private static final byte KIND_LONG = 1;
+		private static final byte KIND_DOUBLE = 2;
+		private static final byte KIND_FLOAT = 3;
+		private static final byte KIND_BOOLEAN = 4;
+		private static final byte KIND_JOIN = 5;
+		private static final byte KIND_LAZY = 6;
+		private static final byte KIND_NESTED = 7;
+
+		private final PhraseTemplate template;
+
+		/** The kind of value bound to every slot, which tells which of the arrays below holds it. */
+		private final byte[] kinds;
+		private final Object[] values;
+		private final long[] longs;
+		private final double[] doubles;
+
+		/** A bitset of the slots which have a value. */
+		private final long[] bound;
+
+		/** The slots replaced since the last incremental render, or null if nobody is tracking them. */
+		private long[] changed;
+
+		/** The values computed by the lazy values during the current render; created on first use. */
+		private CharSequence[] evaluated;
+		private boolean hasLazyValues;
+
+		/** Whether any slot holds the bindings of a nested template. */
+		private boolean hasNestedValues;
+
+		private Bindings(PhraseTemplate template) {
+			int slotCount = template.slots.length;
+			this.template = template;
+			this.kinds = new byte[slotCount];
+			this.values = new Object[slotCount];
+			this.longs = new long[slotCount];
+			this.doubles = new double[slotCount];
+			this.bound = new long[(slotCount + 63) >>> 6];
+		}
+
+		/** Returns the template these values belong to. */
+		public PhraseTemplate getTemplate() {
+			return template;
+		}
+
+		/**
+		 * Replaces the given key with a non-null value.
+		 *
+		 * @throws IllegalArgumentException if the key is not in the pattern.
+		 */
+		public Bindings put(String key, CharSequence value) {
+			return put(template.slot(key), value);
+		}
+
+		/**
+		 * Replaces the key of the given slot with a non-null value.
+		 *
+		 * @throws IllegalArgumentException if the slot belongs to another template.
+		 */
+		public Bindings put(Slot slot, CharSequence value) {
+			if (value == null) {
+				throw new IllegalArgumentException("Null value for '" + slot.key + "'");
+			}
+			int index = bind(slot, KIND_TEXT);
+			values[index] = value;
+			return this;
+		}
+
+		/**
+		 * Replaces the given key with the {@link Integer#toString(int)} value for the given int.
+		 *
+		 * @see #put(String, CharSequence)
+		 */
+		public Bindings put(String key, int value) {
+			return put(template.slot(key), (long) value);
+		}
+
+		/** @see #put(String, int) */
+		public Bindings put(Slot slot, int value) {
+			return put(slot, (long) value);
+		}
+
+		/**
+		 * Replaces the given key with the {@link Long#toString(long)} value for the given long.
+		 *
+		 * @see #put(String, CharSequence)
+		 */
+		public Bindings put(String key, long value) {
+			return put(template.slot(key), value);
+		}
+
+		/** @see #put(String, long) */
+		public Bindings put(Slot slot, long value) {
+			longs[bind(slot, KIND_LONG)] = value;
+			return this;
+		}
+
+		/**
+		 * Replaces the given key with the {@link Boolean#toString(boolean)} value for the given boolean.
+		 *
+		 * @see #put(String, CharSequence)
+		 */
+		public Bindings put(String key, boolean value) {
+			return put(template.slot(key), value);
+		}
+
+		/** @see #put(String, boolean) */
+		public Bindings put(Slot slot, boolean value) {
+			longs[bind(slot, KIND_BOOLEAN)] = value ? 1 : 0;
+			return this;
+		}
+
+		/**
+		 * Replaces the given key with the {@link String#valueOf(double)} value for the given double.
+		 *
+		 * @see #put(String, CharSequence)
+		 */
+		public Bindings put(String key, double value) {
+			return put(template.slot(key), value);
+		}
+
+		/** @see #put(String, double) */
+		public Bindings put(Slot slot, double value) {
+			doubles[bind(slot, KIND_DOUBLE)] = value;
+			return this;
+		}
+
+		/**
+		 * Replaces the given key with the {@link String#valueOf(float)} value for the given float.
+		 *
+		 * @see #put(String, CharSequence)
+		 */
+		public Bindings put(String key, float value) {
+			return put(template.slot(key), value);
+		}
+
+		/** @see #put(String, float) */
+		public Bindings put(Slot slot, float value) {
+			doubles[bind(slot, KIND_FLOAT)] = value;
+			return this;
+		}
+
+		/**
+		 * Replaces the given key with the {@link String#valueOf(Object)} value for the given object.
+		 * Boxed primitives are unboxed and bound like the corresponding primitive.
+		 *
+		 * @see #put(String, CharSequence)
+		 */
+		public <T> Bindings put(String key, T value) {
+			return put(template.slot(key), value);
+		}
+
+		/** @see #put(String, Object) */
+		public <T> Bindings put(Slot slot, T value) {
+			if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+				return put(slot, ((Number) value).longValue());
+			} else if (value instanceof Double) {
+				return put(slot, ((Double) value).doubleValue());
+			} else if (value instanceof Float) {
+				return put(slot, ((Float) value).floatValue());
+			} else if (value instanceof Boolean) {
+				return put(slot, ((Boolean) value).booleanValue());
+			}
+			return put(slot, String.valueOf(value));
+		}
+
+		/**
+		 * Replaces the given key with the elements of the given array, chained with the provided
+		 * separator; a null or empty separator chains them with a single space. The elements are
+		 * written directly into the output when rendering, so the array must not change until then.
+		 */
+		public Bindings putArray(String key, int[] values, String separator) {
+			return putJoin(key, Join.of(values, separator, null));
+		}
+
+		/** @see #putArray(String, int[], String) */
+		public Bindings putArray(String key, int[] values, String separator, ElementFormatter<?> formatter) {
+			return putJoin(key, Join.of(values, separator, formatter));
+		}
+
+		/** @see #putArray(String, int[], String) */
+		public Bindings putArray(String key, long[] values, String separator) {
+			return putJoin(key, Join.of(values, separator, null));
+		}
+
+		/** @see #putArray(String, int[], String) */
+		public Bindings putArray(String key, long[] values, String separator, ElementFormatter<?> formatter) {
+			return putJoin(key, Join.of(values, separator, formatter));
+		}
+
+		/** @see #putArray(String, int[], String) */
+		public Bindings putArray(String key, boolean[] values, String separator) {
+			return putJoin(key, Join.of(values, separator, null));
+		}
+
+		/** @see #putArray(String, int[], String) */
+		public Bindings putArray(String key, boolean[] values, String separator, ElementFormatter<?> formatter) {
+			return putJoin(key, Join.of(values, separator, formatter));
+		}
+
+		/** @see #putArray(String, int[], String) */
+		public Bindings putArray(String key, float[] values, String separator) {
+			return putJoin(key, Join.of(values, separator, null));
+		}
+
+		/** @see #putArray(String, int[], String) */
+		public Bindings putArray(String key, float[] values, String separator, ElementFormatter<?> formatter) {
+			return putJoin(key, Join.of(values, separator, formatter));
+		}
+
+		/** @see #putArray(String, int[], String) */
+		public Bindings putArray(String key, double[] values, String separator) {
+			return putJoin(key, Join.of(values, separator, null));
+		}
+
+		/** @see #putArray(String, int[], String) */
+		public Bindings putArray(String key, double[] values, String separator, ElementFormatter<?> formatter) {
+			return putJoin(key, Join.of(values, separator, formatter));
+		}
+
+		/** @see #putArray(String, int[], String) */
+		public <T> Bindings putArray(String key, T[] values, String separator) {
+			return putJoin(key, Join.of(values, separator, null));
+		}
+
+		/** @see #putArray(String, int[], String) */
+		public <T> Bindings putArray(String key, T[] values, String separator, ElementFormatter<? super T> formatter) {
+			return putJoin(key, Join.of(values, separator, formatter));
+		}
+
+		/**
+		 * Replaces the given key with the elements of the given iterable, chained with the provided
+		 * separator. The iterable is iterated once per render.
+		 *
+		 * @see #putArray(String, int[], String)
+		 */
+		public <T> Bindings putIterable(String key, Iterable<T> values, String separator) {
+			return putJoin(key, Join.of(values, separator, null));
+		}
+
+		/** @see #putIterable(String, Iterable, String) */
+		public <T> Bindings putIterable(String key, Iterable<T> values, String separator, ElementFormatter<? super T> formatter) {
+			return putJoin(key, Join.of(values, separator, formatter));
+		}
+
+		private Bindings putJoin(String key, Join join) {
+			Slot slot = template.slot(key);
+			values[bind(slot, KIND_JOIN)] = join;
+			return this;
+		}
+
+		/**
+		 * Silently ignored if the key is not in the pattern.
+		 *
+		 * @see #put(String, CharSequence)
+		 */
+		public Bindings putOptional(String key, CharSequence value) {
+			Slot slot = template.slotsByKey.get(key);
+			return slot != null ? put(slot, value) : this;
+		}
+
+		/**
+		 * Replaces the given key with the value computed by the supplier. The supplier is called once
+		 * per render, when the key is first rendered; never if the render fails before, or if the key
+		 * is in a branch that is not rendered.
+		 *
+		 * @throws IllegalArgumentException if the key is not in the pattern.
+		 */
+		public Bindings putLazy(String key, ValueSupplier<? extends CharSequence> supplier) {
+			return putLazy(template.slot(key), supplier);
+		}
+
+		/** @see #putLazy(String, ValueSupplier) */
+		public Bindings putLazy(Slot slot, ValueSupplier<? extends CharSequence> supplier) {
+			if (supplier == null) {
+				throw new IllegalArgumentException("Null supplier for '" + slot.key + "'");
+			}
+			values[bind(slot, KIND_LAZY)] = supplier;
+			hasLazyValues = true;
+			return this;
+		}
+
+		/**
+		 * Silently ignored if the key is not in the pattern; the supplier is never called then.
+		 *
+		 * @see #putLazy(String, ValueSupplier)
+		 */
+		public Bindings putLazyOptional(String key, ValueSupplier<? extends CharSequence> supplier) {
+			Slot slot = template.slotsByKey.get(key);
+			return slot != null ? putLazy(slot, supplier) : this;
+		}
+
+		/**
+		 * Replaces the given key with the text of another template, rendered from the given bindings
+		 * straight into the output of this template during the same pass; nothing is rendered up
+		 * front. The nested bindings are read on every render, so later changes to them show up, and
+		 * their keys are checked along with the keys of this template.
+		 *
+		 * @throws IllegalArgumentException if the key is not in the pattern, or if the nested
+		 * bindings hold these bindings, directly or through further nested bindings.
+		 */
+		public Bindings put(String key, Bindings nested) {
+			return put(template.slot(key), nested);
+		}
+
+		/** @see #put(String, Bindings) */
+		public Bindings put(Slot slot, Bindings nested) {
+			if (nested == null) {
+				throw new IllegalArgumentException("Null value for '" + slot.key + "'");
+			}
+			if (nested.reaches(this)) {
+				throw new IllegalArgumentException("Cyclic value for '" + slot.key + "'");
+			}
+			values[bind(slot, KIND_NESTED)] = nested;
+			hasNestedValues = true;
+			return this;
+		}
+
+		/**
+		 * Puts the value of every key of the template found in the given map, leaving the other
+		 * keys as they are. A dotted key such as "user.first_name" is looked up as is first, then
+		 * along the path through nested maps. Values are bound like {@link #put(String, Object)},
+		 * and bindings of other templates like {@link #put(String, Bindings)}; a null value removes
+		 * the value of its key.
+		 *
+		 * @throws IllegalArgumentException if a value holds these bindings.
+		 */
+		public Bindings putAll(Map<String, ?> values) {
+			for (Slot slot : template.slots) {
+				String key = slot.key;
+				Object value = values.get(key);
+				if (value == null && !values.containsKey(key)) {
+					int dot = key.indexOf('.');
+					if (dot < 0) {
+						continue;
+					}
+					value = values;
+					int start = 0;
+					while (value instanceof Map && start >= 0) {
+						int end = key.indexOf('.', start);
+						Map<?, ?> map = (Map<?, ?>) value;
+						String name = end < 0 ? key.substring(start) : key.substring(start, end);
+						if (!map.containsKey(name)) {
+							value = map;
+							break;
+						}
+						value = map.get(name);
+						start = end < 0 ? -1 : end + 1;
+					}
+					if (start >= 0) {
+						// The path does not lead to a value.
+						continue;
+					}
+				}
+				putValue(slot, value);
+			}
+			return this;
+		}
+
+		/**
+		 * Puts the value of every key of the template which the given object has a property for: a
+		 * JavaBean getter such as {@code getFirstName()} or {@code isActive()} for the keys
+		 * "first_name" and "active", an accessor like those of records, {@code firstName()}, or a
+		 * public field. Dotted keys such as "user.first_name" read the properties of properties, and
+		 * maps are read by key; a map itself is bound like {@link #putAll(Map)}.
+		 * <p>
+		 * The accessors are looked up once per template and class and turned into method handles,
+		 * so binding an object costs little more than the calls to {@code put} it replaces. Keys
+		 * without a property keep their values; a null value, or a null property on the path of a
+		 * dotted key, removes the value of its key.
+		 *
+		 * @throws IllegalArgumentException if an accessor throws a checked exception.
+		 */
+		@SuppressWarnings("unchecked")
+		public Bindings bind(Object bean) {
+			if (bean instanceof Map) {
+				return putAll((Map<String, ?>) bean);
+			}
+			template.beanBinder(bean.getClass()).bind(bean, this);
+			return this;
+		}
+
+		/** Puts a value read by {@link #putAll(Map)} or {@link #bind(Object)}. */
+		void putValue(Slot slot, Object value) {
+			if (value == null) {
+				unbind(slot.index);
+			} else if (value instanceof Bindings) {
+				put(slot, (Bindings) value);
+			} else {
+				put(slot, value);
+			}
+		}
+
+		private void unbind(int index) {
+			values[index] = null;
+			bound[index >>> 6] &= ~(1L << index);
+			if (changed != null) {
+				changed[index >>> 6] |= 1L << index;
+			}
+		}
+
+		/** Removes all values so these bindings can be filled again. */
+		public Bindings clear() {
+			Arrays.fill(values, null);
+			Arrays.fill(bound, 0L);
+			if (evaluated != null) {
+				Arrays.fill(evaluated, null);
+			}
+			hasLazyValues = false;
+			hasNestedValues = false;
+			return this;
+		}
+
+		/** Returns true if these are the given bindings or hold them in nested bindings. */
+		private boolean reaches(Bindings target) {
+			if (this == target) {
+				return true;
+			}
+			if (hasNestedValues) {
+				for (int slot = 0; slot < kinds.length; slot++) {
+					if (kinds[slot] == KIND_NESTED && values[slot] != null && ((Bindings) values[slot]).reaches(target)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/** Returns whether any slot holds nested bindings, whose values may change without notice. */
+		boolean hasNestedValues() {
+			return hasNestedValues;
+		}
+
+		/**
+		 * Forgets the values computed by the lazy values during the last render, so each is computed
+		 * again when first read, and prepares all nested bindings.
+		 */
+		private void prepareValues() {
+			forgetLazyValues();
+			if (hasNestedValues) {
+				for (int slot = 0; slot < kinds.length; slot++) {
+					prepareNested(slot);
+				}
+			}
+		}
+
+		/** Like {@link #prepareValues}, for the given slots only. */
+		private void prepareValues(int[] slots) {
+			forgetLazyValues();
+			if (hasNestedValues) {
+				for (int slot : slots) {
+					prepareNested(slot);
+				}
+			}
+		}
+
+		private void forgetLazyValues() {
+			if (evaluated != null) {
+				Arrays.fill(evaluated, null);
+			}
+		}
+
+		/** Prepares the nested bindings of the given slot, if it holds them. */
+		private void prepareNested(int slot) {
+			if (kinds[slot] == KIND_NESTED) {
+				Bindings nested = (Bindings) values[slot];
+				nested.template.prepare(nested);
+			}
+		}
+
+		/**
+		 * Returns the value of the lazy value of the given slot, calling it on its first read during
+		 * a render only, so lazy values in branches that are not rendered are never called.
+		 */
+		@SuppressWarnings("unchecked")
+		private CharSequence lazyValue(int slot) {
+			if (evaluated == null) {
+				evaluated = new CharSequence[values.length];
+			}
+			CharSequence value = evaluated[slot];
+			if (value == null) {
+				value = ((ValueSupplier<? extends CharSequence>) values[slot]).get();
+				if (value == null) {
+					throw new IllegalArgumentException("Null value for '" + template.slots[slot].key + "'");
+				}
+				evaluated[slot] = value;
+			}
+			return value;
+		}
+
+		boolean isBound(int slot) {
+			return (bound[slot >>> 6] & (1L << slot)) != 0;
+		}
+
+		/** Marks the slot as bound to a value of the given kind and returns its index. */
+		private int bind(Slot slot, byte kind) {
+			if (slot.template != template) {
+				throw new IllegalArgumentException("Slot belongs to another template: " + slot);
+			}
+			int index = slot.index;
+			kinds[index] = kind;
+			// Drop a previous text value or join so it can be collected.
+			values[index] = null;
+			bound[index >>> 6] |= 1L << index;
+			if (changed != null) {
+				changed[index >>> 6] |= 1L << index;
+			}
+			return index;
+		}
+
+		void trackChanges() {
+			if (changed == null) {
+				changed = new long[bound.length];
+			} else {
+				Arrays.fill(changed, 0L);
+			}
+		}
+
+		void clearChanges() {
+			Arrays.fill(changed, 0L);
+		}
+
+		/** Returns whether the slot holds a whole number, which selects a form of a plural construct. */
+		boolean isWholeNumber(int slot) {
+			return kinds[slot] == KIND_LONG;
+		}
+
+		long longValue(int slot) {
+			return longs[slot];
+		}
+
+		/** Returns whether the slot holds a double or a float. */
+		boolean isFractionalNumber(int slot) {
+			return kinds[slot] == KIND_DOUBLE || kinds[slot] == KIND_FLOAT;
+		}
+
+		double doubleValue(int slot) {
+			return doubles[slot];
+		}
+
+		/** Returns whether the value of the slot may differ from the one seen by the last render. */
+		boolean isChanged(int slot) {
+			// Lazy values are computed again, and joins and nested bindings read again, on every render.
+			return kinds[slot] >= KIND_JOIN || (changed[slot >>> 6] & (1L << slot)) != 0;
+		}
+
+		/*
+		 * The text of these bindings when nested in other bindings, rendered by their template;
+		 * only called once they are prepared.
+		 */
+
+		private int length() {
+			return template.formattedLength(this, null);
+		}
+
+		private void appendTo(StringBuilder target) {
+			template.appendSegments(target, this, null);
+		}
+
+		private void writeTo(Output output) throws IOException {
+			template.writeSegments(output, this, null);
+		}
+
+		/** Returns the length of the value of the slot, or an upper bound for fractional numbers. */
+		int valueLength(int slot) {
+			switch (kinds[slot]) {
+				case KIND_TEXT:
+					return ((CharSequence) values[slot]).length();
+				case KIND_JOIN:
+					return ((Join) values[slot]).length();
+				case KIND_LAZY:
+					return lazyValue(slot).length();
+				case KIND_NESTED:
+					return ((Bindings) values[slot]).length();
+				case KIND_LONG:
+					return Numbers.stringSize(longs[slot]);
+				case KIND_DOUBLE:
+					return Numbers.MAX_DOUBLE_LENGTH;
+				case KIND_FLOAT:
+					return Numbers.MAX_FLOAT_LENGTH;
+				default:
+					return longs[slot] != 0 ? 4 : 5;
+			}
+		}
+
+		void appendValue(int slot, StringBuilder target) {
+			switch (kinds[slot]) {
+				case KIND_TEXT:
+					target.append((CharSequence) values[slot]);
+					break;
+				case KIND_JOIN:
+					((Join) values[slot]).appendTo(target);
+					break;
+				case KIND_LAZY:
+					target.append(lazyValue(slot));
+					break;
+				case KIND_NESTED:
+					((Bindings) values[slot]).appendTo(target);
+					break;
+				case KIND_LONG:
+					target.append(longs[slot]);
+					break;
+				case KIND_DOUBLE:
+					target.append(doubles[slot]);
+					break;
+				case KIND_FLOAT:
+					target.append((float) doubles[slot]);
+					break;
+				default:
+					target.append(longs[slot] != 0);
+					break;
+			}
+		}
+
+		void writeValue(int slot, Output output) throws IOException {
+			switch (kinds[slot]) {
+				case KIND_TEXT:
+					output.append((CharSequence) values[slot]);
+					break;
+				case KIND_JOIN:
+					((Join) values[slot]).writeTo(output);
+					break;
+				case KIND_LAZY:
+					output.append(lazyValue(slot));
+					break;
+				case KIND_NESTED:
+					((Bindings) values[slot]).writeTo(output);
+					break;
+				case KIND_LONG:
+					output.append(longs[slot]);
+					break;
+				case KIND_DOUBLE:
+					output.append(doubles[slot]);
+					break;
+				case KIND_FLOAT:
+					output.append((float) doubles[slot]);
+					break;
+				default:
+					output.append(longs[slot] != 0 ? "true" : "false");
+					break;
+			}
+		}
+	}
+
+	/**
+	 * A hand-coded lexer based on the idioms in "Building Recognizers By Hand".
+	 * http://www.antlr2.org/book/byhand.pdf.
+	 * <p>
+	 * Text is skipped in bulk with {@link String#indexOf(int, int)} on the first character of the
+	 * open delimiter, which the JIT turns into a vectorized scan, so only keys and escapes are
+	 * looked at char by char; multi-character delimiters are compared where that character occurs.
+	 * Keys are matched against earlier keys as slices of the pattern; a String is only created for
+	 * the first occurrence of every key.
+	 */
+	private static final class Lexer {
+
+		/** Indicates parsing is complete. */
+		private static final int EOF = 0;
+
+		private final String pattern;
+		private final String open;
+		private final String close;
+
+		/** The escape for a literal open delimiter, or null. */
+		private final String escape;
+		private final int escapedOpenOffset;
+
+		/** The first character of the open delimiter and of the escape, which text is scanned for. */
+		private final char openChar;
+		private final char closeChar;
+
+		/** The locale number constructs are formatted for. */
+		private final Locale locale;
+
+		/** The rules plural constructs select their forms by. */
+		private final PluralRules pluralRules;
+
+		/**
+		 * The end of the keys: the first NUL character, or the end of the pattern. The text from a
+		 * NUL character on is rendered as it is, even if it looks like keys.
+		 */
+		private final int length;
+
+		/** The slot assigned to every key, in order of first appearance. */
+		private final Map<String, Integer> slotsByKey = new LinkedHashMap<String, Integer>();
+
+		/** An open addressing table of slot numbers plus one, hashed by key; 0 marks a free bucket. */
+		private int[] table = new int[16];
+
+		/** The offsets of the first occurrence of the key of every slot. */
+		private int[] keyStarts = new int[8];
+		private int[] keyEnds = new int[8];
+
+		/** When parsing, this is the index of the current character. */
+		private int curCharIndex;
+
+		Lexer(String pattern, Delimiters delimiters, Locale locale) {
+			this.pattern = pattern;
+			this.open = delimiters.getOpen();
+			this.close = delimiters.getClose();
+			this.escape = delimiters.getEscape();
+			this.escapedOpenOffset = delimiters.getEscapedOpenOffset();
+			this.locale = locale;
+			this.pluralRules = PluralRules.forLocale(locale);
+			this.openChar = open.charAt(0);
+			this.closeChar = close.charAt(0);
+			int nul = pattern.indexOf(EOF);
+			this.length = nul >= 0 ? nul : pattern.length();
+		}
+
+		/** Returns the next segment from the input pattern, or null when finished parsing. */
+		Segment token() {
+			if (curCharIndex == pattern.length()) {
+				return null;
+			}
+			if (curCharIndex == length) {
+				// A NUL character right after a key or an escape; the rest is text.
+				LiteralSegment rest = new LiteralSegment(length, pattern.length());
+				curCharIndex = pattern.length();
+				return rest;
+			}
+			if (pattern.charAt(curCharIndex) == openChar) {
+				if (isEscape(curCharIndex)) {
+					return escapedOpen();
+				} else if (isOpen(curCharIndex)) {
+					char nextChar = charAt(curCharIndex + open.length());
+					if (nextChar >= 'a' && nextChar <= 'z') {
+						return key();
+					}
+					throw new IllegalArgumentException(
+							"Unexpected character '" + nextChar + "'; expected key.");
+				}
+			}
+			return text();
+		}
+
+		/** Parses a key: "{some_key}", or a construct starting with a key: "{some_key, plural, ...}". */
+		private Segment key() {
+			int keyStart = curCharIndex + open.length();
+			int keyEnd = keyStart;
+			int hash = 0;
+			char c;
+			// Dots separate the names of a key path, "{user.first_name}".
+			while (isKeyChar(c = charAt(keyEnd)) || (c == '.' && keyEnd > keyStart && isKeyChar(charAt(keyEnd + 1)))) {
+				hash = 31 * hash + c;
+				keyEnd++;
+			}
+
+			if (c == ',' && keyEnd > keyStart) {
+				curCharIndex = keyEnd + 1;
+				return construct(slot(keyStart, keyEnd, hash));
+			}
+			if (!isClose(keyEnd)) {
+				throw new IllegalArgumentException("Missing closing brace: " + close);
+			}
+			// Consume the key and the closing '}'.
+			curCharIndex = keyEnd + close.length();
+
+			// Disallow empty keys: {}.
+			if (keyEnd == keyStart) {
+				throw new IllegalArgumentException("Empty key: " + open + close);
+			}
+			return new KeySegment(slot(keyStart, keyEnd, hash));
+		}
+
+		/** Parses the rest of a construct after the key and the comma, e.g. "plural, ...}" or "number, 0.00}". */
+		private Segment construct(int slot) {
+			skipWhitespace();
+			int typeStart = curCharIndex;
+			while (charAt(curCharIndex) >= 'a' && charAt(curCharIndex) <= 'z') {
+				curCharIndex++;
+			}
+			String type = pattern.substring(typeStart, curCharIndex);
+			skipWhitespace();
+			if (charAt(curCharIndex) != ',') {
+				throw new IllegalArgumentException("Missing ',' after '" + type + "'");
+			}
+			curCharIndex++;
+			if (type.equals("plural")) {
+				return plural(slot);
+			} else if (type.equals("number")) {
+				return number(slot);
+			}
+			throw new IllegalArgumentException("Unknown construct '" + type + "'; expected plural or number.");
+		}
+
+		/** Parses the format of a number construct up to and including the closing brace: "#,##0.00}". */
+		private NumberSegment number(int slot) {
+			int end = pattern.indexOf(close, curCharIndex);
+			if (end < 0 || end >= length) {
+				throw new IllegalArgumentException("Missing closing brace: " + close);
+			}
+			NumberPattern format = NumberPattern.parse(pattern.substring(curCharIndex, end), locale);
+			curCharIndex = end + close.length();
+			return new NumberSegment(slot, format);
+		}
+
+		/**
+		 * Parses the forms of a plural construct: "=0 {no items} one {# item} other {# items}}".
+		 * Every form is preceded by an exact count or a plural category, and "other" is required.
+		 */
+		private PluralSegment plural(int slot) {
+			List<Long> exactCounts = new ArrayList<Long>();
+			List<Branch> exactBranches = new ArrayList<Branch>();
+			Branch[] categoryBranches = new Branch[PluralRules.CATEGORIES.length];
+			while (true) {
+				skipWhitespace();
+				char c = charAt(curCharIndex);
+				if (isClose(curCharIndex)) {
+					curCharIndex += close.length();
+					break;
+				}
+				int selectorStart = curCharIndex;
+				if (c == '=') {
+					curCharIndex++;
+					if (charAt(curCharIndex) == '-') {
+						curCharIndex++;
+					}
+					while (charAt(curCharIndex) >= '0' && charAt(curCharIndex) <= '9') {
+						curCharIndex++;
+					}
+				} else {
+					while (charAt(curCharIndex) >= 'a' && charAt(curCharIndex) <= 'z') {
+						curCharIndex++;
+					}
+				}
+				String selector = pattern.substring(selectorStart, curCharIndex);
+				skipWhitespace();
+				if (!isOpen(curCharIndex)) {
+					if (curCharIndex == length) {
+						throw new IllegalArgumentException("Missing closing brace: " + close);
+					}
+					throw new IllegalArgumentException("Missing form for plural selector '" + selector + "'");
+				}
+				curCharIndex += open.length();
+				Branch branch = branch(slot);
+				if (c == '=') {
+					try {
+						exactCounts.add(Long.parseLong(selector.substring(1)));
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid plural count '" + selector + "'");
+					}
+					exactBranches.add(branch);
+				} else {
+					int category = PluralRules.category(selector);
+					if (category < 0) {
+						throw new IllegalArgumentException("Unknown plural category '" + selector + "'");
+					}
+					categoryBranches[category] = branch;
+				}
+			}
+			Branch other = categoryBranches[PluralRules.OTHER];
+			if (other == null) {
+				throw new IllegalArgumentException("Missing plural category 'other'");
+			}
+			for (int i = 0; i < categoryBranches.length; i++) {
+				if (categoryBranches[i] == null) {
+					categoryBranches[i] = other;
+				}
+			}
+			long[] counts = new long[exactCounts.size()];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = exactCounts.get(i);
+			}
+			return new PluralSegment(slot, pluralRules, counts, exactBranches.toArray(new Branch[exactBranches.size()]), categoryBranches);
+		}
+
+		/**
+		 * Parses a form of a plural construct after its opening brace, up to and including the
+		 * closing brace. Forms hold text, escaped brackets, keys, further constructs and '#', which
+		 * stands for the count of the given slot.
+		 */
+		private Branch branch(int countSlot) {
+			List<Segment> parsed = new ArrayList<Segment>();
+			int literalLength = 0;
+			while (true) {
+				char c = charAt(curCharIndex);
+				Segment next;
+				if (curCharIndex == length) {
+					throw new IllegalArgumentException("Missing closing brace: " + close);
+				} else if (c == closeChar && isClose(curCharIndex)) {
+					curCharIndex += close.length();
+					break;
+				} else if (c == '#') {
+					next = new KeySegment(countSlot);
+					curCharIndex++;
+				} else if (c == openChar && (isEscape(curCharIndex) || isOpen(curCharIndex))) {
+					next = token();
+				} else {
+					// The first character starts no delimiter, even if it is the first character of one.
+					int start = curCharIndex++;
+					while (curCharIndex < length && (c = pattern.charAt(curCharIndex)) != openChar && c != closeChar && c != '#') {
+						curCharIndex++;
+					}
+					next = new LiteralSegment(start, curCharIndex);
+				}
+				if (next instanceof LiteralSegment) {
+					LiteralSegment literal = (LiteralSegment) next;
+					literalLength += literal.end - literal.start;
+					Segment prev = parsed.isEmpty() ? null : parsed.get(parsed.size() - 1);
+					if (prev instanceof LiteralSegment && ((LiteralSegment) prev).end == literal.start) {
+						parsed.set(parsed.size() - 1, new LiteralSegment(((LiteralSegment) prev).start, literal.end));
+						continue;
+					}
+				}
+				parsed.add(next);
+			}
+			return new Branch(parsed.toArray(new Segment[parsed.size()]), literalLength);
+		}
+
+		private void skipWhitespace() {
+			while (Character.isWhitespace(charAt(curCharIndex))) {
+				curCharIndex++;
+			}
+		}
+
+		/** Returns the slot of the key at the given offsets, assigning the next one to a new key. */
+		private int slot(int keyStart, int keyEnd, int hash) {
+			int mask = table.length - 1;
+			int bucket = (hash ^ (hash >>> 16)) & mask;
+			int keyLength = keyEnd - keyStart;
+			while (table[bucket] != 0) {
+				int slot = table[bucket] - 1;
+				if (keyEnds[slot] - keyStarts[slot] == keyLength && pattern.regionMatches(keyStarts[slot], pattern, keyStart, keyLength)) {
+					return slot;
+				}
+				bucket = (bucket + 1) & mask;
+			}
+
+			int slot = slotsByKey.size();
+			// Store keys as normal Strings; we don't want keys to contain spans.
+			slotsByKey.put(pattern.substring(keyStart, keyEnd), slot);
+			if (slot == keyStarts.length) {
+				keyStarts = Arrays.copyOf(keyStarts, slot * 2);
+				keyEnds = Arrays.copyOf(keyEnds, slot * 2);
+			}
+			keyStarts[slot] = keyStart;
+			keyEnds[slot] = keyEnd;
+			table[bucket] = slot + 1;
+			if (slotsByKey.size() * 2 > table.length) {
+				rehash();
+			}
+			return slot;
+		}
+
+		private void rehash() {
+			int[] table = new int[this.table.length * 2];
+			int mask = table.length - 1;
+			for (int slot = 0; slot < slotsByKey.size(); slot++) {
+				int hash = 0;
+				for (int i = keyStarts[slot]; i < keyEnds[slot]; i++) {
+					hash = 31 * hash + pattern.charAt(i);
+				}
+				int bucket = (hash ^ (hash >>> 16)) & mask;
+				while (table[bucket] != 0) {
+					bucket = (bucket + 1) & mask;
+				}
+				table[bucket] = slot + 1;
+			}
+			this.table = table;
+		}
+
+		/**
+		 * Consumes and returns a segment for a sequence of text, which starts with at least one
+		 * character that starts no key or escape. An escape right after the text which starts with
+		 * the open delimiter, such as "{{", belongs to the segment, since it expands to the open
+		 * delimiter at the same position.
+		 */
+		private LiteralSegment text() {
+			int startIndex = curCharIndex;
+			int openIndex = startIndex;
+			do {
+				openIndex = pattern.indexOf(openChar, openIndex + 1);
+				if (openIndex < 0 || openIndex >= length) {
+					curCharIndex = pattern.length();
+					return new LiteralSegment(startIndex, pattern.length());
+				}
+			} while (!isEscape(openIndex) && !isOpen(openIndex));
+			if (escapedOpenOffset == 0 && isEscape(openIndex)) {
+				curCharIndex = openIndex + escape.length();
+				return new LiteralSegment(startIndex, openIndex + open.length());
+			}
+			curCharIndex = openIndex;
+			return new LiteralSegment(startIndex, openIndex);
+		}
+
+		/**
+		 * Consumes an escape, e.g. "{{" or "$${", and returns a segment for the open delimiter in
+		 * it, which is what it expands to.
+		 */
+		private LiteralSegment escapedOpen() {
+			int openIndex = curCharIndex + escapedOpenOffset;
+			curCharIndex += escape.length();
+			return new LiteralSegment(openIndex, openIndex + open.length());
+		}
+
+		private boolean isOpen(int index) {
+			return pattern.startsWith(open, index) && index + open.length() <= length;
+		}
+
+		private boolean isClose(int index) {
+			return pattern.startsWith(close, index) && index + close.length() <= length;
+		}
+
+		private boolean isEscape(int index) {
+			return escape != null && pattern.startsWith(escape, index) && index + escape.length() <= length;
+		}
+
+		private static boolean isKeyChar(char c) {
+			return (c >= 'a' && c <= 'z') || c == '_';
+		}
+
+		/** Returns the character at the given index, or EOF past the end of the input. */
+		private char charAt(int index) {
+			return index < length ? pattern.charAt(index) : EOF;
+		}
+	}
+
+	/**
+	 * Turns the segments of a template into a chain of method handles of the type
+	 * {@code (StringBuilder, Bindings)void}, one link per segment, with the literal text of every
+	 * literal segment and the slot of every key segment bound as constants.
+	 */
+	private static final class Specializer {
+
+		/** Longer chains are not worth it; the JIT gives up inlining them anyway. */
+		private static final int MAX_SEGMENTS = 128;
+
+		private static final MethodType RENDER_TYPE = MethodType.methodType(void.class, StringBuilder.class, Bindings.class);
+
+		private static final MethodHandle APPEND_LITERAL;
+		private static final MethodHandle APPEND_VALUE;
+		private static final MethodHandle APPEND_SEGMENT;
+		private static final MethodHandle DONE;
+
+		static {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			try {
+				APPEND_LITERAL = lookup.findStatic(Specializer.class, "appendLiteral",
+						MethodType.methodType(void.class, StringBuilder.class, Bindings.class, String.class));
+				APPEND_VALUE = lookup.findStatic(Specializer.class, "appendValue",
+						MethodType.methodType(void.class, StringBuilder.class, Bindings.class, int.class));
+				APPEND_SEGMENT = lookup.findStatic(Specializer.class, "appendSegment",
+						MethodType.methodType(void.class, StringBuilder.class, Bindings.class, Segment.class, String.class));
+				DONE = lookup.findStatic(Specializer.class, "done", RENDER_TYPE);
+			} catch (ReflectiveOperationException e) {
+				throw new AssertionError(e);
+			}
+		}
+
+		/** Returns the chain for the given segments, or null if there are too many of them. */
+		static MethodHandle generate(String pattern, Segment[] segments) {
+			if (segments.length > MAX_SEGMENTS) {
+				return null;
+			}
+			// Build the chain back to front: every link runs its segment, then the rest of the chain.
+			MethodHandle chain = DONE;
+			for (int i = segments.length - 1; i >= 0; i--) {
+				MethodHandle link;
+				if (segments[i] instanceof LiteralSegment) {
+					LiteralSegment literal = (LiteralSegment) segments[i];
+					link = MethodHandles.insertArguments(APPEND_LITERAL, 2, pattern.substring(literal.start, literal.end));
+				} else if (segments[i] instanceof KeySegment) {
+					link = MethodHandles.insertArguments(APPEND_VALUE, 2, ((KeySegment) segments[i]).slot);
+				} else {
+					link = MethodHandles.insertArguments(APPEND_SEGMENT, 2, segments[i], pattern);
+				}
+				chain = MethodHandles.foldArguments(chain, link);
+			}
+			return chain;
+		}
+
+		private static void appendLiteral(StringBuilder target, Bindings data, String literal) {
+			target.append(literal);
+		}
+
+		private static void appendValue(StringBuilder target, Bindings data, int slot) {
+			data.appendValue(slot, target);
+		}
+
+		private static void appendSegment(StringBuilder target, Bindings data, Segment segment, String pattern) {
+			segment.appendTo(target, pattern, data, null);
+		}
+
+		private static void done(StringBuilder target, Bindings data) {
+		}
+	}
+
+	private abstract static class Segment {
+
+		/*
+		 * The layout slots map the slots of the template to the slots of the bindings of a union,
+		 * or are null if the bindings belong to the template.
+		 */
+
+		/** Returns the number of characters this segment adds on top of the template's literals. */
+		abstract int valueLength(Bindings data, int[] layoutSlots);
+
+		/** Appends the expanded text of this segment to {@code target}. */
+		abstract void appendTo(StringBuilder target, String pattern, Bindings data, int[] layoutSlots);
+
+		/** Writes the expanded text of this segment to {@code output}. */
+		abstract void writeTo(Output output, String pattern, Bindings data, int[] layoutSlots) throws IOException;
+
+		/** Returns whether the text of this segment may differ from the one of the last render. */
+		abstract boolean isChanged(Bindings data);
+	}
+
+	/** A slice of the original pattern which is copied as is. */
+	private static final class LiteralSegment extends Segment {
+		private final int start;
+		private final int end;
+
+		LiteralSegment(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		int valueLength(Bindings data, int[] layoutSlots) {
+			return 0;
+		}
+
+		@Override
+		void appendTo(StringBuilder target, String pattern, Bindings data, int[] layoutSlots) {
+			target.append(pattern, start, end);
+		}
+
+		@Override
+		void writeTo(Output output, String pattern, Bindings data, int[] layoutSlots) throws IOException {
+			output.append(pattern, start, end);
+		}
+
+		@Override
+		boolean isChanged(Bindings data) {
+			return false;
+		}
+	}
+
+	private static final class KeySegment extends Segment {
+		/** The slot of the key, which indexes its value in the bindings. */
+		private final int slot;
+
+		KeySegment(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		int valueLength(Bindings data, int[] layoutSlots) {
+			return data.valueLength(layoutSlots == null ? slot : layoutSlots[slot]);
+		}
+
+		@Override
+		void appendTo(StringBuilder target, String pattern, Bindings data, int[] layoutSlots) {
+			data.appendValue(layoutSlots == null ? slot : layoutSlots[slot], target);
+		}
+
+		@Override
+		void writeTo(Output output, String pattern, Bindings data, int[] layoutSlots) throws IOException {
+			data.writeValue(layoutSlots == null ? slot : layoutSlots[slot], output);
+		}
+
+		@Override
+		boolean isChanged(Bindings data) {
+			return data.isChanged(slot);
+		}
+	}
+
+	/**
+	 * A plural construct: "{count, plural, =0 {no items} one {# item} other {# items}}". The form
+	 * is selected by the value of the count key, first among the exact counts, then by the plural
+	 * category of the count in a table of one form per category, filled in while parsing. A count
+	 * which is not a whole number selects the "other" form.
+	 */
+	private static final class PluralSegment extends Segment {
+		/** The slot of the count key. */
+		private final int slot;
+		private final PluralRules rules;
+
+		/** The counts given as "=N" and their forms. */
+		private final long[] exactCounts;
+		private final Branch[] exactBranches;
+
+		/** The form of every plural category; categories without a form of their own use the "other" form. */
+		private final Branch[] categoryBranches;
+
+		PluralSegment(int slot, PluralRules rules, long[] exactCounts, Branch[] exactBranches, Branch[] categoryBranches) {
+			this.slot = slot;
+			this.rules = rules;
+			this.exactCounts = exactCounts;
+			this.exactBranches = exactBranches;
+			this.categoryBranches = categoryBranches;
+		}
+
+		private Branch select(Bindings data, int[] layoutSlots) {
+			int countSlot = layoutSlots == null ? slot : layoutSlots[slot];
+			if (!data.isWholeNumber(countSlot)) {
+				return categoryBranches[PluralRules.OTHER];
+			}
+			long count = data.longValue(countSlot);
+			for (int i = 0; i < exactCounts.length; i++) {
+				if (exactCounts[i] == count) {
+					return exactBranches[i];
+				}
+			}
+			return categoryBranches[rules.select(count)];
+		}
+
+		@Override
+		int valueLength(Bindings data, int[] layoutSlots) {
+			Branch branch = select(data, layoutSlots);
+			int length = branch.literalLength;
+			for (Segment s : branch.segments) {
+				length += s.valueLength(data, layoutSlots);
+			}
+			return length;
+		}
+
+		@Override
+		void appendTo(StringBuilder target, String pattern, Bindings data, int[] layoutSlots) {
+			for (Segment s : select(data, layoutSlots).segments) {
+				s.appendTo(target, pattern, data, layoutSlots);
+			}
+		}
+
+		@Override
+		void writeTo(Output output, String pattern, Bindings data, int[] layoutSlots) throws IOException {
+			for (Segment s : select(data, layoutSlots).segments) {
+				s.writeTo(output, pattern, data, layoutSlots);
+			}
+		}
+
+		@Override
+		boolean isChanged(Bindings data) {
+			return true;
+		}
+	}
+
+	/**
+	 * A number construct: "{amount, number, #,##0.00}". Whole and fractional numbers are written
+	 * in the format of the construct; any other value is written as is.
+	 */
+	private static final class NumberSegment extends Segment {
+		private final int slot;
+		private final NumberPattern format;
+
+		NumberSegment(int slot, NumberPattern format) {
+			this.slot = slot;
+			this.format = format;
+		}
+
+		@Override
+		int valueLength(Bindings data, int[] layoutSlots) {
+			int valueSlot = layoutSlots == null ? slot : layoutSlots[slot];
+			if (data.isWholeNumber(valueSlot)) {
+				return format.maxLength(data.longValue(valueSlot));
+			} else if (data.isFractionalNumber(valueSlot)) {
+				return format.maxLength(data.doubleValue(valueSlot));
+			}
+			return data.valueLength(valueSlot);
+		}
+
+		@Override
+		void appendTo(StringBuilder target, String pattern, Bindings data, int[] layoutSlots) {
+			int valueSlot = layoutSlots == null ? slot : layoutSlots[slot];
+			if (data.isWholeNumber(valueSlot)) {
+				format.appendTo(target, data.longValue(valueSlot));
+			} else if (data.isFractionalNumber(valueSlot)) {
+				format.appendTo(target, data.doubleValue(valueSlot));
+			} else {
+				data.appendValue(valueSlot, target);
+			}
+		}
+
+		@Override
+		void writeTo(Output output, String pattern, Bindings data, int[] layoutSlots) throws IOException {
+			int valueSlot = layoutSlots == null ? slot : layoutSlots[slot];
+			if (data.isWholeNumber(valueSlot)) {
+				StringBuilder scratch = output.scratch();
+				format.appendTo(scratch, data.longValue(valueSlot));
+				output.appendScratch(scratch);
+			} else if (data.isFractionalNumber(valueSlot)) {
+				StringBuilder scratch = output.scratch();
+				format.appendTo(scratch, data.doubleValue(valueSlot));
+				output.appendScratch(scratch);
+			} else {
+				data.writeValue(valueSlot, output);
+			}
+		}
+
+		@Override
+		boolean isChanged(Bindings data) {
+			return data.isChanged(slot);
+		}
+	}
+
+	/** A form of a plural construct, with the number of characters contributed by its literals. */
+	private static final class Branch {
+		private final Segment[] segments;
+		private final int literalLength;
+
+		Branch(Segment[] segments, int literalLength) {
+			this.segments = segments;
+			this.literalLength = literalLength;
+		}
+	}
+
+}
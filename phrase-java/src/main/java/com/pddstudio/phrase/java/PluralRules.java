@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import java.util.Locale;
+
+/**
+ * Maps counts to the CLDR plural categories of a language, for the plural constructs of
+ * {@link PhraseTemplate}. Only the integer rules are implemented; the rules of languages not
+ * known here are those of English.
+ */
+final class PluralRules {
+
+	static final int ZERO = 0;
+	static final int ONE = 1;
+	static final int TWO = 2;
+	static final int FEW = 3;
+	static final int MANY = 4;
+	static final int OTHER = 5;
+
+	/** The name of every category, indexed by category. */
+	static final String[] CATEGORIES = { "zero", "one", "two", "few", "many", "other" };
+
+	/** Only "other": Chinese, Japanese, Korean and others without plural forms. */
+	private static final int RULE_NONE = 0;
+	/** "one" for 1: English, German, Dutch, Italian, Spanish and many more. */
+	private static final int RULE_ONE = 1;
+	/** "one" for 0 and 1: French, Portuguese, Hindi. */
+	private static final int RULE_ZERO_ONE = 2;
+	/** "one", "few" and "many" by the last digits: Russian, Ukrainian, Belarusian. */
+	private static final int RULE_EAST_SLAVIC = 3;
+	/** "one" for 1, "few" and "many" by the last digits: Polish. */
+	private static final int RULE_POLISH = 4;
+	/** "one" for 1, "few" for 2 to 4: Czech, Slovak. */
+	private static final int RULE_CZECH = 5;
+	/** All six categories: Arabic. */
+	private static final int RULE_ARABIC = 6;
+	/** "one" for 1, "two" for 2: Hebrew. */
+	private static final int RULE_HEBREW = 7;
+
+	private static final PluralRules[] RULES = new PluralRules[8];
+
+	static {
+		for (int i = 0; i < RULES.length; i++) {
+			RULES[i] = new PluralRules(i);
+		}
+	}
+
+	private final int rule;
+
+	private PluralRules(int rule) {
+		this.rule = rule;
+	}
+
+	/** Returns the rules of the language of the given locale. */
+	static PluralRules forLocale(Locale locale) {
+		switch (locale.getLanguage()) {
+			case "ja":
+			case "zh":
+			case "ko":
+			case "th":
+			case "vi":
+			case "id":
+			case "ms":
+				return RULES[RULE_NONE];
+			case "fr":
+			case "pt":
+			case "hi":
+				return RULES[RULE_ZERO_ONE];
+			case "ru":
+			case "uk":
+			case "be":
+				return RULES[RULE_EAST_SLAVIC];
+			case "pl":
+				return RULES[RULE_POLISH];
+			case "cs":
+			case "sk":
+				return RULES[RULE_CZECH];
+			case "ar":
+				return RULES[RULE_ARABIC];
+			case "he":
+			case "iw":
+				return RULES[RULE_HEBREW];
+			default:
+				return RULES[RULE_ONE];
+		}
+	}
+
+	/** Returns the index of the given category name, or -1 if it is no category. */
+	static int category(String name) {
+		for (int i = 0; i < CATEGORIES.length; i++) {
+			if (CATEGORIES[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** Returns the category of the given count. */
+	int select(long count) {
+		long n = Math.abs(count);
+		long mod10 = n % 10;
+		long mod100 = n % 100;
+		switch (rule) {
+			case RULE_NONE:
+				return OTHER;
+			case RULE_ZERO_ONE:
+				return n <= 1 ? ONE : OTHER;
+			case RULE_EAST_SLAVIC:
+				if (mod10 == 1 && mod100 != 11) {
+					return ONE;
+				}
+				return mod10 >= 2 && mod10 <= 4 && (mod100 < 12 || mod100 > 14) ? FEW : MANY;
+			case RULE_POLISH:
+				if (n == 1) {
+					return ONE;
+				}
+				return mod10 >= 2 && mod10 <= 4 && (mod100 < 12 || mod100 > 14) ? FEW : MANY;
+			case RULE_CZECH:
+				if (n == 1) {
+					return ONE;
+				}
+				return n >= 2 && n <= 4 ? FEW : OTHER;
+			case RULE_ARABIC:
+				if (n <= 2) {
+					return (int) n;
+				}
+				if (mod100 >= 3 && mod100 <= 10) {
+					return FEW;
+				}
+				return mod100 >= 11 ? MANY : OTHER;
+			case RULE_HEBREW:
+				return n == 1 ? ONE : n == 2 ? TWO : OTHER;
+			default:
+				return n == 1 ? ONE : OTHER;
+		}
+	}
+
+}
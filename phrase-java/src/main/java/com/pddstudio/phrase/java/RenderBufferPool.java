@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded pool of render buffers, so that high volume renders don't allocate a fresh buffer
+ * every time. Canonical usage:
+ * <pre>
+ *   String body = template.formatString(bindings, RenderBufferPool.shared());
+ * </pre>
+ * The pool is a small, fixed array of slots claimed and returned with compare-and-set. It uses
+ * neither thread-locals nor locks, so any number of threads, virtual threads included, may share
+ * one pool without pinning carriers or keeping a buffer alive per thread. When all slots are
+ * taken a new buffer is created, and when all slots are full a returned buffer is dropped.
+ * Buffers which grew beyond the maximum length are dropped as well, so a single huge render
+ * doesn't stay in memory.
+ */
+public final class RenderBufferPool {
+
+	/** The longest buffer, in chars, kept by the shared pool. */
+	public static final int DEFAULT_MAX_BUFFER_LENGTH = 16 * 1024;
+
+	private static final RenderBufferPool SHARED =
+			new RenderBufferPool(2 * Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BUFFER_LENGTH);
+
+	private final AtomicReferenceArray<StringBuilder> slots;
+	private final int mask;
+	private final int maxBufferLength;
+
+	/** Returns the pool shared by default, with two slots per processor. */
+	public static RenderBufferPool shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Creates a pool keeping up to {@code maxBuffers} buffers of at most {@code maxBufferLength}
+	 * chars each; the number of buffers is rounded up to a power of two.
+	 */
+	public RenderBufferPool(int maxBuffers, int maxBufferLength) {
+		if (maxBuffers < 1) {
+			throw new IllegalArgumentException("Invalid number of buffers: " + maxBuffers);
+		}
+		int slotCount = Integer.highestOneBit(maxBuffers - 1) << 1;
+		this.slots = new AtomicReferenceArray<StringBuilder>(Math.max(slotCount, 1));
+		this.mask = slots.length() - 1;
+		this.maxBufferLength = maxBufferLength;
+	}
+
+	/** Returns the number of buffers currently kept by this pool. */
+	public int size() {
+		int size = 0;
+		for (int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) != null) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	/** Takes an empty buffer from the pool, or creates one with the expected capacity. */
+	StringBuilder acquire(int expectedLength) {
+		int start = probe();
+		for (int i = 0; i <= mask; i++) {
+			int index = (start + i) & mask;
+			StringBuilder buffer = slots.get(index);
+			if (buffer != null && slots.compareAndSet(index, buffer, null)) {
+				buffer.setLength(0);
+				return buffer;
+			}
+		}
+		return new StringBuilder(Math.min(Math.max(expectedLength, 16), maxBufferLength));
+	}
+
+	/** Puts the buffer back into the pool unless it grew too large or the pool is full. */
+	void release(StringBuilder buffer) {
+		if (buffer.capacity() > maxBufferLength) {
+			return;
+		}
+		int start = probe();
+		for (int i = 0; i <= mask; i++) {
+			int index = (start + i) & mask;
+			if (slots.get(index) == null && slots.compareAndSet(index, null, buffer)) {
+				return;
+			}
+		}
+	}
+
+	/** Spreads threads over the slots so that they rarely compete for the same one. */
+	private static int probe() {
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Rendered text held in a pooled buffer, see
+	 * {@link PhraseTemplate#formatPooled(PhraseTemplate.Bindings, RenderBufferPool)}. The text
+	 * is owned by the caller until it is closed, which returns the buffer to the pool; it must not
+	 * be used afterwards.
+	 */
+	public static final class Text implements CharSequence, AutoCloseable {
+
+		private final RenderBufferPool pool;
+		private StringBuilder buffer;
+
+		Text(RenderBufferPool pool, StringBuilder buffer) {
+			this.pool = pool;
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int length() {
+			return buffer().length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			return buffer().charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return buffer().substring(start, end);
+		}
+
+		/** Copies the characters from {@code start} to {@code end} into {@code target} at {@code offset}. */
+		public void getChars(int start, int end, char[] target, int offset) {
+			buffer().getChars(start, end, target, offset);
+		}
+
+		/** Returns a copy of the text which stays valid after this text is closed. */
+		@Override
+		public String toString() {
+			return buffer().toString();
+		}
+
+		/** Returns the buffer to the pool; closing again has no effect. */
+		@Override
+		public void close() {
+			if (buffer != null) {
+				pool.release(buffer);
+				buffer = null;
+			}
+		}
+
+		private StringBuilder buffer() {
+			if (buffer == null) {
+				throw new IllegalStateException("Text already closed");
+			}
+			return buffer;
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encodes everything written to it as UTF-8 straight into a {@link ByteBuffer}, without creating
+ * an intermediate String or byte array. Without a channel, running out of room throws a
+ * {@link BufferOverflowException}; with a channel, the full buffer is written to the channel and
+ * reused, so output of any size passes through a buffer of fixed size.
+ * <p>
+ * Unpaired surrogates are encoded as {@code '?'}, like {@link String#getBytes} does. A high
+ * surrogate ending one write is held back until the next, so pairs split between a literal and a
+ * value are still encoded as one code point.
+ */
+final class Utf8Output extends Output {
+
+	/** The longest encoding of a single code point. */
+	static final int MAX_BYTES_PER_CODE_POINT = 4;
+
+	private final ByteBuffer buffer;
+	private final WritableByteChannel channel;
+
+	/** The number of bytes written to the channel so far. */
+	private long flushed;
+
+	/** The high surrogate ending the last write, or 0 if it ended otherwise. */
+	private char pendingHighSurrogate;
+
+	Utf8Output(ByteBuffer buffer, WritableByteChannel channel) {
+		this.buffer = buffer;
+		this.channel = channel;
+	}
+
+	/** Writes bytes which have already been encoded; they must not start with a low surrogate. */
+	void append(byte[] bytes) throws IOException {
+		endPendingSurrogate();
+		int offset = 0;
+		while (bytes.length - offset > buffer.remaining()) {
+			int chunk = buffer.remaining();
+			buffer.put(bytes, offset, chunk);
+			offset += chunk;
+			flush();
+		}
+		buffer.put(bytes, offset, bytes.length - offset);
+	}
+
+	@Override
+	void append(String s, int start, int end) throws IOException {
+		encode(s, start, end);
+	}
+
+	@Override
+	void append(CharSequence value) throws IOException {
+		encode(value, 0, value.length());
+	}
+
+	@Override
+	void appendScratch(StringBuilder scratch) throws IOException {
+		encode(scratch, 0, scratch.length());
+	}
+
+	/** Encodes a high surrogate ending the last write as {@code '?'}; called once all text is written. */
+	void end() throws IOException {
+		endPendingSurrogate();
+	}
+
+	/** Writes the rest of the buffer to the channel; returns the total number of bytes written to it. */
+	long finish() throws IOException {
+		if (buffer.position() > 0) {
+			flush();
+		}
+		return flushed;
+	}
+
+	private void encode(CharSequence chars, int start, int end) throws IOException {
+		if (start == end) {
+			return;
+		}
+		ByteBuffer buffer = this.buffer;
+		if (pendingHighSurrogate != 0) {
+			if (Character.isLowSurrogate(chars.charAt(start))) {
+				putCodePoint(Character.toCodePoint(pendingHighSurrogate, chars.charAt(start++)));
+				pendingHighSurrogate = 0;
+			} else {
+				endPendingSurrogate();
+			}
+		}
+		for (int i = start; i < end; i++) {
+			char c = chars.charAt(i);
+			if (c < 0x80) {
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				ensureRemaining(2);
+				buffer.put((byte) (0xc0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			} else if (!Character.isSurrogate(c)) {
+				ensureRemaining(3);
+				buffer.put((byte) (0xe0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars.charAt(i + 1))) {
+				putCodePoint(Character.toCodePoint(c, chars.charAt(++i)));
+			} else if (Character.isHighSurrogate(c) && i + 1 == end) {
+				pendingHighSurrogate = c;
+			} else {
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				buffer.put((byte) '?');
+			}
+		}
+	}
+
+	private void putCodePoint(int codePoint) throws IOException {
+		ensureRemaining(4);
+		buffer.put((byte) (0xf0 | (codePoint >> 18)));
+		buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+		buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+		buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+	}
+
+	private void endPendingSurrogate() throws IOException {
+		if (pendingHighSurrogate != 0) {
+			pendingHighSurrogate = 0;
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			buffer.put((byte) '?');
+		}
+	}
+
+	private void ensureRemaining(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		if (channel == null) {
+			throw new BufferOverflowException();
+		}
+		// ByteBuffer only overrides these methods since Java 9; call the ones of Buffer on Java 7.
+		((Buffer) buffer).flip();
+		while (buffer.hasRemaining()) {
+			flushed += channel.write(buffer);
+		}
+		((Buffer) buffer).clear();
+	}
+
+}
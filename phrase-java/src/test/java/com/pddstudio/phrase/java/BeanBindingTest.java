@@ -0,0 +1,215 @@
+package com.pddstudio.phrase.java;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for binding the values of beans, records and maps with
+ * {@link PhraseTemplate.Bindings#bind(Object)} and {@link PhraseTemplate.Bindings#putAll(Map)}.
+ */
+public class BeanBindingTest {
+
+	public static class User {
+
+		public String nickname = "annie";
+
+		private final String firstName;
+		private final Address address;
+		private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+		public User(String firstName, Address address) {
+			this.firstName = firstName;
+			this.address = address;
+		}
+
+		public String getFirstName() {
+			return firstName;
+		}
+
+		public Address getAddress() {
+			return address;
+		}
+
+		public boolean isActive() {
+			return true;
+		}
+
+		public int getAge() {
+			return 42;
+		}
+
+		public Map<String, Object> getAttributes() {
+			return attributes;
+		}
+	}
+
+	public static class Address {
+
+		private final String city;
+
+		public Address(String city) {
+			this.city = city;
+		}
+
+		public String getCity() {
+			return city;
+		}
+	}
+
+	/** Holds a value whose properties can only be looked up by its class. */
+	public static class Box {
+
+		public final Object content;
+
+		public Box(Object content) {
+			this.content = content;
+		}
+	}
+
+	public static class Purchase {
+
+		public final Order order;
+		public final User user;
+
+		Purchase(Order order, User user) {
+			this.order = order;
+			this.user = user;
+		}
+	}
+
+	/** A record-style class: accessors named like its properties, and not public itself. */
+	private static final class Order {
+
+		private final long id;
+		private final double total;
+		private final User user;
+
+		Order(long id, double total, User user) {
+			this.id = id;
+			this.total = total;
+			this.user = user;
+		}
+
+		public long id() {
+			return id;
+		}
+
+		public double total() {
+			return total;
+		}
+
+		public User user() {
+			return user;
+		}
+	}
+
+	@Test
+	public void beanTest() {
+		PhraseTemplate template = PhraseTemplate.compile(
+				"{first_name} ({nickname}, {age}, active: {active}) lives in {address.city}; {unknown}");
+		User user = new User("Ann", new Address("Oslo"));
+		PhraseTemplate.Bindings bindings = template.newBindings().put("unknown", "?").bind(user);
+		assertEquals("Ann (annie, 42, active: true) lives in Oslo; ?", template.formatString(bindings));
+
+		// The binder of the class is reused for other objects of it.
+		bindings.bind(new User("Bob", new Address("Rome")));
+		assertEquals("Bob (annie, 42, active: true) lives in Rome; ?", template.formatString(bindings));
+	}
+
+	@Test
+	public void recordTest() {
+		PhraseTemplate template = PhraseTemplate.compile("Order {id} of {user.first_name}: {total, number, 0.00} {user.attributes.currency}");
+		User user = new User("Ann", null);
+		user.getAttributes().put("currency", "EUR");
+		Phrase phrase = Phrase.from(template).bind(new Order(7, 12.5, user));
+		assertEquals("Order 7 of Ann: 12.50 EUR", phrase.formatString());
+	}
+
+	@Test
+	public void primitivePathTest() {
+		PhraseTemplate template = PhraseTemplate.compile("{user.age} {user.active} {order.total, number, 0.0} {order.id}");
+		PhraseTemplate.Bindings bindings = template.newBindings().bind(new Purchase(new Order(7, 12.5, null), new User("Ann", null)));
+		assertEquals("42 true 12.5 7", template.formatString(bindings));
+
+		// Primitive properties of null owners are unbound rather than bound to zero.
+		bindings.bind(new Purchase(new Order(8, 1, null), null));
+		try {
+			template.formatString(bindings);
+			fail("Expected the properties of the null user to be unbound");
+		} catch (IllegalArgumentException expected) {
+		}
+		assertEquals("7 false 1.0 8", template.formatString(bindings.put("user.age", 7).put("user.active", false)));
+	}
+
+	@Test
+	public void objectPropertyTest() {
+		PhraseTemplate template = PhraseTemplate.compile("{content.first_name} from {content.address.city}");
+		PhraseTemplate.Bindings bindings = template.newBindings();
+		// Values declared as Object are read by their class, which may differ from one bind to the next.
+		assertEquals("Ann from Oslo", template.formatString(bindings.bind(new Box(new User("Ann", new Address("Oslo"))))));
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("first_name", "Bob");
+		map.put("address", new Address("Rome"));
+		assertEquals("Bob from Rome", template.formatString(bindings.bind(new Box(map))));
+
+		// Values without the property read as null, like maps without the key.
+		bindings.bind(new Box("text"));
+		try {
+			template.formatString(bindings);
+			fail("Expected the keys to be unbound");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void nullPropertyTest() {
+		PhraseTemplate template = PhraseTemplate.compile("{first_name} lives in {address.city}");
+		PhraseTemplate.Bindings bindings = template.newBindings().bind(new User("Ann", null));
+		try {
+			template.formatString(bindings);
+			fail("Expected the key of the null address to be unbound");
+		} catch (IllegalArgumentException expected) {
+		}
+		assertEquals("Ann lives in Oslo", template.formatString(bindings.put("address.city", "Oslo")));
+	}
+
+	@Test
+	public void mapTest() {
+		PhraseTemplate template = PhraseTemplate.compile("{greeting} {user.first_name} from {user.address.city} and {x.y}");
+		Map<String, Object> address = Collections.<String, Object>singletonMap("city", "Oslo");
+		Map<String, Object> user = new HashMap<String, Object>();
+		user.put("first_name", "Ann");
+		user.put("address", address);
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("greeting", "Hi");
+		values.put("user", user);
+		values.put("x.y", 1);
+		values.put("unknown", "ignored");
+
+		PhraseTemplate.Bindings bindings = template.newBindings().putAll(values);
+		assertEquals("Hi Ann from Oslo and 1", template.formatString(bindings));
+
+		PhraseTemplate nested = PhraseTemplate.compile("<{user.first_name}>");
+		values.put("greeting", nested.newBindings().bind(values));
+		assertEquals("<Ann> Ann from Oslo and 1", template.formatString(bindings.bind(values)));
+	}
+
+	@Test
+	public void invalidKeyPathTest() {
+		String[] patterns = { "{user.}", "{.user}", "{user..name}", "{user. name}" };
+		for (String pattern : patterns) {
+			try {
+				PhraseTemplate.compile(pattern);
+				fail("Expected a syntax error in " + pattern);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+}
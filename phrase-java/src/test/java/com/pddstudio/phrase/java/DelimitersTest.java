@@ -0,0 +1,108 @@
+package com.pddstudio.phrase.java;
+
+import com.pddstudio.phrase.java.Phrase.KeyIdentifier;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for templates with multi-character {@link Delimiters}.
+ */
+public class DelimitersTest {
+
+	@Test
+	public void dollarBracesTest() throws IOException {
+		Delimiters dollar = Delimiters.of("${", "}");
+		assertEquals("$${", dollar.getEscape());
+		PhraseTemplate template = PhraseTemplate.compile("${name} owes $5 and $${amount}} to ${who}.$", dollar);
+		PhraseTemplate.Bindings bindings = template.newBindings().put("name", "Ann").put("who", "Bob");
+		String expected = "Ann owes $5 and ${amount}} to Bob.$";
+		assertEquals(expected, template.formatString(bindings));
+		StringWriter writer = new StringWriter();
+		template.formatTo(bindings, writer);
+		assertEquals(expected, writer.toString());
+		assertEquals(expected, template.specialize().formatString(bindings));
+		assertNull(template.getKeyIdentifier());
+		assertSame(dollar, template.getDelimiters());
+	}
+
+	@Test
+	public void doubleBracesTest() {
+		Delimiters mustache = Delimiters.of("{{", "}}");
+		PhraseTemplate template = PhraseTemplate.compile("{{{greeting}} { {{who}}}! {count, plural, one {{{count}} item}}", mustache);
+		assertEquals("{{greeting}} { World}! {count, plural, one {{count}} item}}",
+				template.formatString(template.newBindings().put("who", "World")));
+
+		Phrase phrase = Phrase.from("{{n, plural, one {{# file in {{dir}}}} other {{# files}}}}: {{size, number, #,##0}} bytes", mustache);
+		assertEquals("1 file in /tmp: 12,345 bytes", phrase.put("n", 1).put("dir", "/tmp").put("size", 12345).formatString());
+		assertEquals("3 files: 12,345 bytes", phrase.put("n", 3).formatString());
+	}
+
+	@Test
+	public void percentTest() {
+		Delimiters percent = Delimiters.of("%", "%");
+		PhraseTemplate template = PhraseTemplate.compile("%userprofile% is 100%% %state%", percent);
+		assertEquals("C:\\Users\\ann is 100% full", template.formatString(template.newBindings()
+				.put("userprofile", "C:\\Users\\ann").put("state", "full")));
+	}
+
+	@Test
+	public void customEscapeTest() {
+		Delimiters noEscape = Delimiters.of("<%=", "%>", null);
+		PhraseTemplate template = PhraseTemplate.compile("<% if %> <%=name%> <<%=name%>>", noEscape);
+		assertEquals("<% if %> Ann <Ann>", template.formatString(template.newBindings().put("name", "Ann")));
+
+		Delimiters tripled = Delimiters.of("<%=", "%>", "<%=<%=");
+		template = PhraseTemplate.compile("<%=<%=name%> <%=name%>", tripled);
+		assertEquals("<%=name%> Ann", template.formatString(template.newBindings().put("name", "Ann")));
+	}
+
+	@Test
+	public void keyIdentifierDelimitersTest() {
+		assertSame(KeyIdentifier.ROUND_BRACKETS.getDelimiters(), Delimiters.of("(", ")"));
+		assertSame(KeyIdentifier.ROUND_BRACKETS, PhraseTemplate.compile("(a)", Delimiters.of("(", ")")).getKeyIdentifier());
+		assertEquals(Delimiters.of("${", "}"), Delimiters.of("${", "}", "$${"));
+
+		// The cache tells templates apart by their delimiters, not only by their pattern.
+		PhraseCache cache = new PhraseCache(16);
+		assertSame(cache.get("{a}", KeyIdentifier.CURLY_BRACKETS), cache.get("{a}", Delimiters.of("{", "}")));
+		PhraseTemplate mustache = cache.get("{a}", Delimiters.of("{{", "}}"));
+		assertEquals("{a}", mustache.formatString(mustache.newBindings()));
+	}
+
+	@Test
+	public void invalidDelimitersTest() {
+		String[][] invalid = {
+				{ "", "}", null },
+				{ "{", "", null },
+				{ "${", "x}", "$${" },
+				{ "${", ",", "$${" },
+				{ "${", "}", "${" },
+				{ "${", "}", "\\${" },
+				{ "${", "}", "$$" },
+		};
+		for (String[] delimiters : invalid) {
+			try {
+				Delimiters.of(delimiters[0], delimiters[1], delimiters[2]);
+				fail("Expected invalid delimiters: " + delimiters[0] + " " + delimiters[1] + " " + delimiters[2]);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+		String[] patterns = { "${name", "${ name}", "${n, plural, one ${x} other ${y}", "${n, number, 0" };
+		for (String pattern : patterns) {
+			try {
+				PhraseTemplate.compile(pattern, Delimiters.of("${", "}"));
+				fail("Expected a syntax error in " + pattern);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.pddstudio.phrase.java;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for rendering many rows with a {@link PhraseBatch}.
+ */
+public class PhraseBatchTest {
+
+	private static final int ROWS = 50000;
+
+	private final PhraseTemplate template = PhraseTemplate.compile("Dear {name}, order #{order} ships in {days} days.");
+
+	private static String expected(int row) {
+		return "Dear user" + row + ", order #" + (1000L + row) + " ships in " + (row % 7) + " days.";
+	}
+
+	@Test
+	public void mapRowsTest() {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++) {
+			Map<String, Object> row = new HashMap<>();
+			row.put("name", "user" + i);
+			row.put("order", 1000L + i);
+			row.put("days", i % 7);
+			rows.add(row);
+		}
+		List<String> results = PhraseBatch.of(template).render(rows);
+		assertEquals(ROWS, results.size());
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(expected(i), results.get(i));
+		}
+	}
+
+	@Test
+	public void columnsInOrderTest() {
+		String[] names = new String[ROWS];
+		long[] orders = new long[ROWS];
+		int[] days = new int[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			names[i] = "user" + i;
+			orders[i] = 1000L + i;
+			days[i] = i % 7;
+		}
+		PhraseBatch.Columns columns = PhraseBatch.Columns.of(ROWS).column("name", names).column("order", orders).column("days", days);
+
+		final List<String> results = new ArrayList<>();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			PhraseBatch.of(template).withPool(pool).render(columns, new PhraseBatch.Sink() {
+				@Override
+				public void accept(int row, String result) {
+					assertEquals(results.size(), row);
+					results.add(result);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(ROWS, results.size());
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(expected(i), results.get(i));
+		}
+		assertEquals(PhraseBatch.of(template).sequential().render(columns), results);
+	}
+
+	@Test
+	public void linkedRowsTest() {
+		List<Map<String, Object>> rows = new LinkedList<>();
+		for (int i = 0; i < ROWS; i++) {
+			rows.add(Collections.<String, Object>singletonMap("name", "user" + i));
+		}
+		List<String> results = PhraseBatch.of(PhraseTemplate.compile("{name}")).render(rows);
+		assertEquals("user" + (ROWS - 1), results.get(ROWS - 1));
+	}
+
+	@Test
+	public void floatAndBooleanColumnsTest() {
+		PhraseTemplate template = PhraseTemplate.compile("{ratio} {active}");
+		PhraseBatch.Columns columns = PhraseBatch.Columns.of(2)
+				.column("ratio", new float[] { 0.5f, 1.25f })
+				.column("active", new boolean[] { true, false });
+		assertEquals(Arrays.asList("0.5 true", "1.25 false"), PhraseBatch.of(template).sequential().render(columns));
+	}
+
+	@Test
+	public void missingKeyTest() {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			Map<String, Object> row = new HashMap<>();
+			row.put("name", "user" + i);
+			row.put("order", i);
+			if (i != 150) {
+				row.put("days", i);
+			}
+			rows.add(row);
+		}
+		try {
+			PhraseBatch.of(template).render(rows);
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Row 150: Missing keys: [days]"));
+			return;
+		}
+		throw new AssertionError("Expected the missing key to be reported");
+	}
+
+}
@@ -0,0 +1,112 @@
+package com.pddstudio.phrase.java;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the lazily compiled templates of a {@link PhraseBundle}.
+ */
+public class PhraseBundleTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private PhraseBundle open(String contents) throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		return PhraseBundle.open(file.toPath());
+	}
+
+	@Test
+	public void syntaxTest() throws IOException {
+		PhraseBundle bundle = open("# A comment\n"
+				+ "! Another comment\n"
+				+ "\n"
+				+ "greeting = Hello {name}!\r\n"
+				+ "  farewell:Bye {name}\n"
+				+ "tabs\tLine one\\nLine two\\t\\u00e9\n"
+				+ "long = first, \\\n"
+				+ "       second\n"
+				+ "grüße=Grüß {name}\n"
+				+ "empty\n"
+				+ "greeting = Hi {name}!");
+
+		assertEquals(6, bundle.size());
+		assertEquals("Hi {name}!", bundle.getPattern("greeting"));
+		assertEquals("Bye {name}", bundle.getPattern("farewell"));
+		assertEquals("Line one\nLine two\té", bundle.getPattern("tabs"));
+		assertEquals("first, second", bundle.getPattern("long"));
+		assertEquals("Grüß {name}", bundle.getPattern("grüße"));
+		assertEquals("", bundle.getPattern("empty"));
+		assertNull(bundle.getPattern("missing"));
+		assertFalse(bundle.containsKey("greet"));
+
+		assertEquals("Grüß Jane", bundle.phrase("grüße").put("name", "Jane").formatString());
+	}
+
+	@Test
+	public void commentContinuationTest() throws IOException {
+		// A trailing backslash does not continue a comment onto the next line.
+		PhraseBundle bundle = open("# C:\\temp\\\n"
+				+ "greeting=Hello\n"
+				+ "! \\\r\n"
+				+ "farewell=Bye");
+		assertEquals(2, bundle.size());
+		assertEquals("Hello", bundle.getPattern("greeting"));
+		assertEquals("Bye", bundle.getPattern("farewell"));
+	}
+
+	@Test
+	public void escapedKeyTest() throws IOException {
+		PhraseBundle bundle = open("a\\=b=equals\n"
+				+ "a\\ b\\:c = space and colon\n"
+				+ "caf\\u00e9=escaped\n"
+				+ "plain=first\n"
+				+ "pl\\ain=second");
+		assertEquals(4, bundle.size());
+		assertEquals("equals", bundle.getPattern("a=b"));
+		assertEquals("space and colon", bundle.getPattern("a b:c"));
+		assertEquals("escaped", bundle.getPattern("café"));
+		// Keys are equal once resolved, so the last entry wins.
+		assertEquals("second", bundle.getPattern("plain"));
+		assertFalse(bundle.containsKey("a\\=b"));
+		assertEquals("equals", bundle.phrase("a=b").formatString());
+	}
+
+	@Test
+	public void lazyCompileTest() throws IOException {
+		StringBuilder contents = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			contents.append("key_").append(i).append("=Entry ").append(i).append(" for {name}\n");
+		}
+		PhraseBundle bundle = open(contents.toString());
+		assertEquals(1000, bundle.size());
+		assertEquals(0, bundle.compiledCount());
+
+		PhraseTemplate template = bundle.get("key_500");
+		assertEquals(1, bundle.compiledCount());
+		assertSame(template, bundle.get("key_500"));
+		assertEquals("Entry 500 for Jane", template.formatString(template.newBindings().put("name", "Jane")));
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(bundle.containsKey("key_" + i));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingKeyTest() throws IOException {
+		open("greeting=Hello {name}!").get("farewell");
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.pddstudio.phrase.java;
+
+import com.pddstudio.phrase.java.Phrase.KeyIdentifier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link PhraseCache} behind the pattern based {@link Phrase} entry points.
+ */
+public class PhraseCacheTest {
+
+	@Test
+	public void hitAndMissTest() {
+		PhraseCache cache = new PhraseCache(16);
+		PhraseTemplate first = cache.get("Hello {who}!", KeyIdentifier.CURLY_BRACKETS);
+		PhraseTemplate second = cache.get(new StringBuilder("Hello {who}!"), KeyIdentifier.CURLY_BRACKETS);
+		PhraseTemplate other = cache.get("Hello {who}!", KeyIdentifier.ROUND_BRACKETS);
+
+		assertSame(first, second);
+		assertNotSame(first, other);
+		PhraseCache.Stats stats = cache.stats();
+		assertEquals(1, stats.getHitCount());
+		assertEquals(2, stats.getMissCount());
+		assertTrue(stats.getTotalLoadTime() > 0);
+	}
+
+	@Test
+	public void evictionTest() {
+		PhraseCache cache = new PhraseCache(4);
+		for (int i = 0; i < 10; i++) {
+			cache.get("{key} " + i, KeyIdentifier.CURLY_BRACKETS);
+		}
+		assertEquals(4, cache.size());
+		assertEquals(6, cache.stats().getEvictionCount());
+	}
+
+	@Test
+	public void leastRecentlyUsedTest() {
+		PhraseCache cache = new PhraseCache(2);
+		PhraseTemplate kept = cache.get("{a}", KeyIdentifier.CURLY_BRACKETS);
+		cache.get("{b}", KeyIdentifier.CURLY_BRACKETS);
+		cache.get("{a}", KeyIdentifier.CURLY_BRACKETS);
+		cache.get("{c}", KeyIdentifier.CURLY_BRACKETS);
+
+		assertSame(kept, cache.get("{a}", KeyIdentifier.CURLY_BRACKETS));
+		assertEquals(1, cache.stats().getEvictionCount());
+	}
+
+	@Test
+	public void disabledCacheTest() {
+		PhraseCache cache = new PhraseCache(0);
+		cache.get("{a}", KeyIdentifier.CURLY_BRACKETS);
+		cache.get("{a}", KeyIdentifier.CURLY_BRACKETS);
+		assertEquals(0, cache.size());
+		assertEquals(2, cache.stats().getMissCount());
+	}
+
+	@Test
+	public void phraseUsesCacheTest() {
+		PhraseCache previous = Phrase.getTemplateCache();
+		PhraseCache cache = new PhraseCache(8);
+		Phrase.setTemplateCache(cache);
+		try {
+			Phrase first = Phrase.from("Hi {name}");
+			Phrase second = Phrase.from("Hi {name}");
+			assertSame(first.getTemplate(), second.getTemplate());
+			assertEquals("Hi A", first.put("name", "A").formatString());
+			assertEquals("Hi B", second.put("name", "B").formatString());
+			assertEquals(1, cache.stats().getHitCount());
+		} finally {
+			Phrase.setTemplateCache(previous);
+		}
+	}
+
+}
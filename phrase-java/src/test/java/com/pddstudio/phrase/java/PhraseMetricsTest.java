@@ -0,0 +1,91 @@
+package com.pddstudio.phrase.java;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for recording template metrics with a {@link PhraseMetricsRegistry}.
+ */
+public class PhraseMetricsTest {
+
+	private final PhraseMetricsRegistry registry = new PhraseMetricsRegistry();
+
+	@After
+	public void tearDown() {
+		PhraseMetrics.install(PhraseMetrics.NOOP);
+	}
+
+	@Test
+	public void noopByDefaultTest() {
+		assertSame(PhraseMetrics.NOOP, PhraseMetrics.installed());
+		PhraseTemplate template = PhraseTemplate.compile("Hi {name}");
+		assertEquals("Hi x", template.formatString(template.newBindings().put("name", "x")));
+		assertTrue(registry.snapshot().isEmpty());
+	}
+
+	@Test
+	public void recordTest() throws Exception {
+		PhraseMetrics.install(registry);
+		PhraseTemplate template = PhraseTemplate.compile("Hi {name}!", Phrase.KeyIdentifier.CURLY_BRACKETS, "greeting");
+		PhraseTemplate.Bindings bindings = template.newBindings();
+		try {
+			template.format(bindings);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		bindings.put("name", "Jane");
+		assertEquals("Hi Jane!", template.formatString(bindings));
+		template.formatTo(bindings, new StringWriter());
+		assertEquals(8, template.formatTo(bindings, ByteBuffer.allocate(16)));
+
+		Map<String, PhraseMetricsRegistry.Snapshot> snapshot = registry.snapshot();
+		assertEquals(1, snapshot.size());
+		PhraseMetricsRegistry.Snapshot greeting = snapshot.get("greeting");
+		assertEquals(1, greeting.getParseLatency().getCount());
+		assertEquals(3, greeting.getRenderLatency().getCount());
+		assertEquals(8, greeting.getChars());
+		assertEquals(8, greeting.getBytes());
+		assertEquals(1, greeting.getMissingKeyFailures());
+		assertTrue(greeting.getRenderLatency().getPercentileNanos(100) >= greeting.getRenderLatency().getMeanNanos());
+
+		StringBuilder dump = new StringBuilder();
+		registry.dump(dump);
+		assertTrue(dump.toString(), dump.toString().startsWith("greeting: parses=[count=1"));
+	}
+
+	@Test
+	public void incrementalTest() {
+		PhraseMetrics.install(registry);
+		Phrase phrase = Phrase.from(PhraseTemplate.compile("Hi {name}, {n}", Phrase.KeyIdentifier.CURLY_BRACKETS, "status"))
+				.incremental().put("name", "Jane").put("n", 1);
+		assertEquals("Hi Jane, 1", phrase.formatString());
+		assertEquals("Hi Jane, 2", phrase.put("n", 2).formatString());
+		// Incremental renders count the whole output, not only the segments rendered again.
+		assertEquals(20, registry.snapshot().get("status").getChars());
+	}
+
+	@Test
+	public void unnamedTemplateTest() {
+		PhraseMetrics.install(registry);
+		PhraseTemplate.compile("Bye {name}");
+		assertEquals(1, registry.snapshot().get("Bye {name}").getParseLatency().getCount());
+	}
+
+	@Test
+	public void bundleNameTest() {
+		PhraseMetrics.install(registry);
+		PhraseBundle bundle = PhraseBundle.of(ByteBuffer.wrap("farewell=Bye {name}\n".getBytes()), Phrase.KeyIdentifier.CURLY_BRACKETS);
+		assertEquals("farewell", bundle.get("farewell").getName());
+		assertEquals(1, registry.snapshot().get("farewell").getParseLatency().getCount());
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.pddstudio.phrase.java;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for resolving localized messages with a {@link PhraseResolver}.
+ */
+public class PhraseResolverTest {
+
+	private static final Locale AUSTRIA = new Locale("de", "AT");
+
+	private final PhraseResolver resolver = PhraseResolver.builder()
+			.add(Locale.ROOT, patterns("greeting", "Hello {name}!", "farewell", "Bye {name}", "help", "Help"))
+			.add(Locale.GERMAN, PhraseBundle.of(ByteBuffer.wrap("greeting=Hallo {name}!\nfarewell=Tschüss {name}\n"
+					.getBytes(StandardCharsets.UTF_8)), Phrase.KeyIdentifier.CURLY_BRACKETS))
+			.add(AUSTRIA, patterns("greeting", "Servus {name}!"))
+			.build();
+
+	private static Map<String, String> patterns(String... idsAndPatterns) {
+		Map<String, String> patterns = new HashMap<>();
+		for (int i = 0; i < idsAndPatterns.length; i += 2) {
+			patterns.put(idsAndPatterns[i], idsAndPatterns[i + 1]);
+		}
+		return patterns;
+	}
+
+	@Test
+	public void fallbackTest() {
+		assertEquals(Arrays.asList(AUSTRIA, Locale.GERMAN, Locale.ROOT), resolver.getFallbackChain(new Locale("de", "AT", "Vienna")));
+		assertEquals(Collections.singletonList(Locale.ROOT), resolver.getFallbackChain(Locale.FRANCE));
+
+		assertEquals("Servus Jane!", resolver.phrase("greeting", AUSTRIA).put("name", "Jane").formatString());
+		assertEquals("Tschüss Jane", resolver.phrase("farewell", AUSTRIA).put("name", "Jane").formatString());
+		assertEquals("Help", resolver.phrase("help", AUSTRIA).formatString());
+		assertEquals("Hallo Jane!", resolver.phrase("greeting", Locale.GERMANY).put("name", "Jane").formatString());
+		assertEquals("Hello Jane!", resolver.phrase("greeting", Locale.FRANCE).put("name", "Jane").formatString());
+	}
+
+	@Test
+	public void compiledOnceTest() {
+		PhraseTemplate template = resolver.get("farewell", AUSTRIA);
+		assertSame(template, resolver.get("farewell", AUSTRIA));
+		assertSame(template, resolver.get("farewell", Locale.GERMAN));
+		assertSame(resolver.get("help", Locale.ROOT), resolver.get("help", Locale.JAPAN));
+	}
+
+	@Test
+	public void manyRequestedLocalesTest() {
+		// Locales from requests share the templates of the chain they fall back to.
+		PhraseTemplate template = resolver.get("greeting", Locale.GERMAN);
+		for (int i = 0; i < 2 * PhraseResolver.MAX_REQUESTED_LOCALES; i++) {
+			Locale locale = new Locale("de", "CH", "v" + i);
+			assertSame(template, resolver.get("greeting", locale));
+			assertEquals(Arrays.asList(Locale.GERMAN, Locale.ROOT), resolver.getFallbackChain(locale));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingMessageTest() {
+		resolver.get("unknown", AUSTRIA);
+	}
+
+}
@@ -0,0 +1,560 @@
+package com.pddstudio.phrase.java;
+
+import com.pddstudio.phrase.java.Phrase.KeyIdentifier;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the compiled {@link PhraseTemplate} and its {@link PhraseTemplate.Bindings}.
+ */
+@RunWith(Parameterized.class)
+public class PhraseTemplateTest extends BaseUtilityTest {
+
+	@Parameters
+	public static Collection<KeyIdentifier> data() {
+		return Arrays.asList(KeyIdentifier.values());
+	}
+
+	public PhraseTemplateTest(KeyIdentifier keyIdentifier) {
+		super(keyIdentifier);
+	}
+
+	private String getPhraseForIdentifier(String phrase) {
+		return phrase.replaceAll("\\{", phraseKeyIdentifier.getOpenCharString()).replaceAll("\\}", phraseKeyIdentifier.getCloseCharString());
+	}
+
+	private PhraseTemplate compile(String phrase) {
+		return PhraseTemplate.compile(getPhraseForIdentifier(phrase), phraseKeyIdentifier);
+	}
+
+	@Test
+	public void escapedTemplateTest() {
+		PhraseTemplate template = compile("{{literal}} {greeting} {{ {who}!");
+		String expected = getPhraseForIdentifier("{literal}} Hello { World!");
+		String result = template.formatString(template.newBindings().put("greeting", "Hello").put("who", "World"));
+		printResult("escapedTemplateTest()", result, expected);
+		assertEquals(expected, result);
+	}
+
+	@Test
+	public void nulCharacterTest() {
+		// Keys end at the first NUL character; the text from there on is rendered as it is.
+		PhraseTemplate template = compile("a\0b");
+		assertEquals("a\0b", template.formatString(template.newBindings()));
+		template = compile("a\0{x}");
+		assertEquals(getPhraseForIdentifier("a\0{x}"), template.formatString(template.newBindings()));
+		template = compile("{x}\0{y}");
+		PhraseTemplate.Bindings bindings = template.newBindings().put("x", "X");
+		assertEquals(getPhraseForIdentifier("X\0{y}"), template.formatString(bindings));
+		assertEquals(getPhraseForIdentifier("X\0{y}"), template.specialize().formatString(bindings));
+		assertEquals(Arrays.asList("x"), new ArrayList<>(template.getKeys()));
+	}
+
+	@Test
+	public void keysInOrderTest() {
+		PhraseTemplate template = compile("{b} {a} {b} {c}");
+		assertEquals(Arrays.asList("b", "a", "c"), new ArrayList<>(template.getKeys()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingKeyTest() {
+		PhraseTemplate template = compile("{greeting} {who}!");
+		template.format(template.newBindings().put("greeting", "Hello"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void foreignBindingsTest() {
+		PhraseTemplate template = compile("{greeting}");
+		PhraseTemplate other = compile("{greeting}");
+		template.format(other.newBindings().put("greeting", "Hello"));
+	}
+
+	@Test
+	public void unionBindingsTest() throws IOException {
+		PhraseTemplate subject = compile("Order {order} for {name}");
+		PhraseTemplate body = compile("Hi {name}, your total is {total}. {{unsubscribe}");
+		PhraseTemplate footer = compile("{company} © {year}");
+		PhraseTemplate message = PhraseTemplate.union(subject, body);
+		assertEquals(Arrays.asList("order", "name", "total"), new ArrayList<String>(message.getKeys()));
+
+		final int[] calls = new int[1];
+		PhraseTemplate.Bindings bindings = message.newBindings()
+				.put("order", 1234)
+				.put("total", 9.5)
+				.putLazy("name", new ValueSupplier<String>() {
+					@Override
+					public String get() {
+						calls[0]++;
+						return "Jürgen";
+					}
+				});
+		assertEquals("Order 1234 for Jürgen", subject.formatString(bindings));
+		assertEquals(getPhraseForIdentifier("Hi Jürgen, your total is 9.5. {unsubscribe}"), body.formatString(bindings));
+		assertEquals(2, calls[0]);
+
+		StringBuilder appended = new StringBuilder();
+		body.specialize().formatTo(bindings, appended);
+		assertEquals(body.formatString(bindings), appended.toString());
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		subject.formatTo(bindings, buffer);
+		assertEquals("Order 1234 for Jürgen", new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+
+		// Keys are checked per template; the footer has keys the union lacks.
+		try {
+			footer.format(bindings);
+			fail("Expected the missing keys to be reported");
+		} catch (IllegalArgumentException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("company"));
+			assertTrue(expected.getMessage(), expected.getMessage().contains("year"));
+		}
+		PhraseTemplate.Bindings partial = message.newBindings().put("order", 1).put("name", "Jane");
+		assertEquals("Order 1 for Jane", subject.formatString(partial));
+		try {
+			body.format(partial);
+			fail("Expected the missing key to be reported");
+		} catch (IllegalArgumentException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("total"));
+		}
+	}
+
+	@Test
+	public void nestedBindingsTest() throws IOException {
+		PhraseTemplate page = compile("{header}\n{items}\n{footer}");
+		PhraseTemplate header = compile("Dear {name},");
+		PhraseTemplate footer = compile("Regards, {sender}");
+		PhraseTemplate.Bindings headerBindings = header.newBindings().put("name", "Jane");
+		PhraseTemplate.Bindings footerBindings = footer.newBindings();
+		PhraseTemplate.Bindings pageBindings = page.newBindings()
+				.put("header", headerBindings)
+				.put("items", "- tea")
+				.put("footer", footerBindings);
+
+		// Keys of nested bindings are checked with the keys of the outer template.
+		try {
+			page.format(pageBindings);
+			fail("Expected the missing key to be reported");
+		} catch (IllegalArgumentException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("sender"));
+		}
+		final int[] calls = new int[1];
+		footerBindings.putLazy("sender", new ValueSupplier<String>() {
+			@Override
+			public String get() {
+				calls[0]++;
+				return "Bob";
+			}
+		});
+		String expected = "Dear Jane,\n- tea\nRegards, Bob";
+		assertEquals(expected, page.formatString(pageBindings));
+		assertEquals(expected, page.specialize().formatString(pageBindings));
+		StringBuffer streamed = new StringBuffer();
+		page.formatTo(pageBindings, streamed);
+		assertEquals(expected, streamed.toString());
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		page.formatTo(pageBindings, buffer);
+		assertEquals(expected, new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+		assertEquals(4, calls[0]);
+
+		// Cycles are rejected when binding, however deep.
+		try {
+			headerBindings.put("name", headerBindings);
+			fail("Expected the cycle to be reported");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Cyclic value for 'name'", e.getMessage());
+		}
+		try {
+			footerBindings.put("sender", pageBindings);
+			fail("Expected the cycle to be reported");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Cyclic value for 'sender'", e.getMessage());
+		}
+		assertEquals(expected, page.formatString(pageBindings));
+	}
+
+	@Test
+	public void pluralTest() throws IOException {
+		PhraseTemplate template = compile("{{cart}: {count, plural, =0 {no items} one {# item} other {# items in {place}}}!");
+		PhraseTemplate.Bindings bindings = template.newBindings().put("place", "total");
+		assertEquals(Arrays.asList("count", "place"), new ArrayList<String>(template.getKeys()));
+		assertEquals(getPhraseForIdentifier("{cart}: no items!"), template.formatString(bindings.put("count", 0)));
+		assertEquals(getPhraseForIdentifier("{cart}: 1 item!"), template.formatString(bindings.put("count", 1)));
+		assertEquals(getPhraseForIdentifier("{cart}: 21 items in total!"), template.formatString(bindings.put("count", 21)));
+		assertEquals(getPhraseForIdentifier("{cart}: 1.5 items in total!"), template.formatString(bindings.put("count", 1.5)));
+
+		// All render paths select the same form.
+		bindings.put("count", 1);
+		StringBuffer streamed = new StringBuffer();
+		template.formatTo(bindings, streamed);
+		assertEquals(getPhraseForIdentifier("{cart}: 1 item!"), streamed.toString());
+		assertEquals(getPhraseForIdentifier("{cart}: 1 item!"), template.specialize().formatString(bindings));
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		template.formatTo(bindings, buffer);
+		assertEquals(getPhraseForIdentifier("{cart}: 1 item!"), new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void pluralCategoriesTest() {
+		String pattern = getPhraseForIdentifier("{n, plural, one {# plik} few {# pliki} many {# plików} other {# pliku}}");
+		PhraseTemplate polish = PhraseTemplate.compile(pattern, phraseKeyIdentifier, null, new Locale("pl"));
+		assertEquals("1 plik", polish.formatString(polish.newBindings().put("n", 1)));
+		assertEquals("3 pliki", polish.formatString(polish.newBindings().put("n", 3)));
+		assertEquals("5 plików", polish.formatString(polish.newBindings().put("n", 5)));
+		assertEquals("22 pliki", polish.formatString(polish.newBindings().put("n", 22)));
+		assertEquals("2.5 pliku", polish.formatString(polish.newBindings().put("n", 2.5)));
+
+		// Nested constructs select by their own count.
+		PhraseTemplate nested = compile("{files, plural, one {{dirs, plural, one {# dir} other {# dirs}}: # file} other {# files}}");
+		assertEquals("2 dirs: 1 file", nested.formatString(nested.newBindings().put("files", 1).put("dirs", 2)));
+	}
+
+	@Test
+	public void invalidPluralTest() {
+		String[] invalid = {
+				"{n, plural, one {# item}}",
+				"{n, plural, few {x} other {y}",
+				"{n, plural, some {x} other {y}}",
+				"{n, plural, =x {x} other {y}}",
+				"{n, plural, one other {y}}",
+				"{n, choice, other {y}}",
+				"{n, plural other {y}}",
+		};
+		for (String pattern : invalid) {
+			try {
+				compile(pattern);
+				fail("Expected a syntax error in " + pattern);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void numberFormatTest() throws IOException {
+		PhraseTemplate template = compile("{total, number, #,##0.00} EUR | {ratio, number, percent} | {id, number, 00000} | {avg, number, 0.##} {name, number, integer}");
+		PhraseTemplate.Bindings bindings = template.newBindings()
+				.put("total", 1234567.891).put("ratio", 0.256).put("id", 42).put("avg", 2.5).put("name", "n/a");
+		String expected = "1,234,567.89 EUR | 26% | 00042 | 2.5 n/a";
+		String result = template.formatString(bindings);
+		printResult("numberFormatTest()", result, expected);
+		assertEquals(expected, result);
+
+		// Rounding is half-even on the exact value of the double, like DecimalFormat.
+		assertEquals("0.12 EUR | 0% | -00007 | 2 n/a", template.formatString(bindings.put("total", 0.125).put("ratio", 0.004)
+				.put("id", -7).put("avg", 1.999)));
+		assertEquals("0.14 EUR | -0% | 12345678901234567890 | 0.1 n/a", template.formatString(bindings.put("total", 0.135)
+				.put("ratio", -0.001).put("id", new java.math.BigInteger("12345678901234567890")).put("avg", 0.1F)));
+		assertEquals("-9,223,372,036,854,775,808.00 EUR | 1,234,567,890,000% | 1e3 | NaN n/a", template.formatString(bindings
+				.put("total", Long.MIN_VALUE).put("ratio", 12345678900L).put("id", "1e3").put("avg", Double.NaN)));
+
+		// All render paths write the same digits.
+		bindings.put("total", 1e21).put("id", 42);
+		expected = "1,000,000,000,000,000,000,000.00 EUR | 1,234,567,890,000% | 00042 | NaN n/a";
+		StringBuffer streamed = new StringBuffer();
+		template.formatTo(bindings, streamed);
+		assertEquals(expected, streamed.toString());
+		assertEquals(expected, template.specialize().formatString(bindings));
+		ByteBuffer buffer = ByteBuffer.allocate(128);
+		template.formatTo(bindings, buffer);
+		assertEquals(expected, new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void numberFormatLocaleTest() {
+		String[] formats = { "#,##0.00", "0.0", "#.##", "000", "#,##0%", "0.###", ",##0.0#", ".00", ".##", "#.", "#,##0.", "0.%" };
+		double[] values = { 0, -0.001, 0.005, 0.5, 2.5, -1.5, 1234.5, 987654.321, 0.1 + 0.2, 1e-9, 1e16, -3.75e18 };
+		// Arabic has a bidi mark before the minus sign and after the percent sign.
+		for (Locale locale : new Locale[] { Locale.ROOT, Locale.GERMANY, new Locale("fr", "CH"), new Locale("ar", "EG") }) {
+			for (String format : formats) {
+				PhraseTemplate template = PhraseTemplate.compile(getPhraseForIdentifier("{n, number, " + format + "}"),
+						phraseKeyIdentifier, null, locale);
+				java.text.DecimalFormat reference = new java.text.DecimalFormat(format, java.text.DecimalFormatSymbols.getInstance(locale));
+				reference.setRoundingMode(java.math.RoundingMode.HALF_EVEN);
+				for (double value : values) {
+					assertEquals(format + " " + value, reference.format(value), template.formatString(template.newBindings().put("n", value)));
+					long whole = (long) value;
+					assertEquals(format + " " + whole, reference.format(whole), template.formatString(template.newBindings().put("n", whole)));
+				}
+			}
+		}
+		PhraseTemplate german = PhraseTemplate.compile(getPhraseForIdentifier("{n, number, #,##0.00}"), phraseKeyIdentifier, null, Locale.GERMAN);
+		assertEquals("1.234,50", german.formatString(german.newBindings().put("n", 1234.5)));
+		PhraseTemplate trailing = PhraseTemplate.compile(getPhraseForIdentifier("{n, number, #.}"), phraseKeyIdentifier);
+		assertEquals("4.", trailing.formatString(trailing.newBindings().put("n", 3.5)));
+	}
+
+	@Test
+	public void invalidNumberFormatTest() {
+		String[] invalid = {
+				"{n, number, #,##0.00",
+				"{n, number, }",
+				"{n, number, 0#}",
+				"{n, number, 0.#0}",
+				"{n, number, 0,}",
+				"{n, number, 0.0.0}",
+				"{n, number, $0}",
+				"{n, number, 0.0000000000000000}",
+				"{n, date, short}",
+		};
+		for (String pattern : invalid) {
+			try {
+				compile(pattern);
+				fail("Expected a syntax error in " + pattern);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void slotTest() {
+		PhraseTemplate template = compile("{greeting} {who}, {who}!");
+		PhraseTemplate.Slot greeting = template.slot("greeting");
+		PhraseTemplate.Slot who = template.slot("who");
+		assertSame(who, template.slot("who"));
+		assertEquals(1, who.getIndex());
+
+		String result = template.formatString(template.newBindings().put(greeting, "Hello").put(who, 42));
+		assertEquals("Hello 42, 42!", result);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void foreignSlotTest() {
+		PhraseTemplate template = compile("{greeting}");
+		PhraseTemplate other = compile("{greeting}");
+		template.newBindings().put(other.slot("greeting"), "Hello");
+	}
+
+	@Test
+	public void manyKeysTest() {
+		StringBuilder pattern = new StringBuilder();
+		for (int i = 0; i < 130; i++) {
+			pattern.append("{key_").append((char) ('a' + i / 26)).append((char) ('a' + i % 26)).append("}");
+		}
+		PhraseTemplate template = compile(pattern.toString());
+		PhraseTemplate.Bindings bindings = template.newBindings();
+		for (String key : template.getKeys()) {
+			if (!key.equals("key_ez")) {
+				bindings.put(key, "x");
+			}
+		}
+		try {
+			template.format(bindings);
+			fail("Expected the missing key to be reported");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Missing keys: [key_ez]", e.getMessage());
+		}
+		String result = template.formatString(bindings.put("key_ez", "y"));
+		assertEquals(130, result.length());
+		assertTrue(result.endsWith("y"));
+	}
+
+	@Test
+	public void specializedTemplateTest() {
+		String pattern = "{{escaped}} Hi {first_name}, you are {age} years old; {first_name} {score} {ok}";
+		PhraseTemplate interpreted = compile(pattern);
+		PhraseTemplate specialized = compile(pattern).specialize();
+		assertTrue(specialized.isSpecialized());
+
+		String expected = interpreted.formatString(interpreted.newBindings()
+				.put("first_name", "Jane").put("age", 42).put("score", 9.5).put("ok", true));
+		String result = specialized.formatString(specialized.newBindings()
+				.put("first_name", "Jane").put("age", 42).put("score", 9.5).put("ok", true));
+		printResult("specializedTemplateTest()", result, expected);
+		assertEquals(expected, result);
+	}
+
+	@Test
+	public void lazyValueTest() {
+		PhraseTemplate template = compile("{greeting} {who}, {who}!");
+		final int[] calls = new int[2];
+		PhraseTemplate.Bindings bindings = template.newBindings()
+				.putLazy("who", new ValueSupplier<String>() {
+					@Override
+					public String get() {
+						calls[0]++;
+						return "World";
+					}
+				})
+				.putLazyOptional("missing", new ValueSupplier<String>() {
+					@Override
+					public String get() {
+						calls[1]++;
+						return "never";
+					}
+				});
+		assertEquals(0, calls[0]);
+		try {
+			template.format(bindings);
+			fail("Expected the missing key to be reported");
+		} catch (IllegalArgumentException expected) {
+			// The supplier isn't called for a render which fails before.
+		}
+		assertEquals(0, calls[0]);
+
+		bindings.put("greeting", "Hello");
+		assertEquals(getPhraseForIdentifier("Hello World, World!"), template.formatString(bindings));
+		assertEquals(1, calls[0]);
+		assertEquals(getPhraseForIdentifier("Hello World, World!"), template.specialize().formatString(bindings));
+		assertEquals(2, calls[0]);
+		assertEquals(0, calls[1]);
+	}
+
+	@Test
+	public void lazyValueInBranchTest() {
+		PhraseTemplate template = compile("{count, plural, one {# item} other {# items in {place}}}; {inner}, {again}");
+		PhraseTemplate nested = compile("{name}");
+		final int[] calls = new int[1];
+		PhraseTemplate.Bindings nestedBindings = nested.newBindings().putLazy("name", new ValueSupplier<String>() {
+			@Override
+			public String get() {
+				calls[0]++;
+				return "cart";
+			}
+		});
+		PhraseTemplate.Bindings bindings = template.newBindings()
+				.put("count", 1)
+				.putLazy("place", new ValueSupplier<String>() {
+					@Override
+					public String get() {
+						throw new AssertionError("The branch with the key is not rendered");
+					}
+				})
+				.put("inner", nestedBindings)
+				.put("again", nestedBindings);
+		assertEquals("1 item; cart, cart", template.formatString(bindings));
+		// Nested bindings under two keys compute their lazy values once per render.
+		assertEquals(1, calls[0]);
+		assertEquals("1 item; cart, cart", template.formatString(bindings));
+		assertEquals(2, calls[0]);
+	}
+
+	@Test
+	public void utf8Test() throws IOException {
+		PhraseTemplate template = compile("{{na\u00efve}} {greeting} \u20ac{price}, {who} \ud83d\ude00 {ok}");
+		PhraseTemplate.Bindings bindings = template.newBindings()
+				.put("greeting", "Gr\u00fc\u00df dich").put("price", 9.99).put("who", "\ud83c\udf0d!\ud800").put("ok", true);
+		byte[] expected = template.formatString(bindings).replace('\ud800', '?').getBytes(StandardCharsets.UTF_8);
+
+		for (ByteBuffer buffer : Arrays.asList(ByteBuffer.allocate(256), ByteBuffer.allocateDirect(256))) {
+			buffer.put((byte) 'x');
+			assertEquals(expected.length, template.formatTo(bindings, buffer));
+			assertEquals(1 + expected.length, buffer.position());
+			byte[] result = new byte[expected.length];
+			buffer.position(1);
+			buffer.get(result);
+			assertTrue(Arrays.equals(expected, result));
+		}
+
+		ByteBuffer small = ByteBuffer.allocate(expected.length - 1);
+		try {
+			template.formatTo(bindings, small);
+			fail("Expected the text not to fit");
+		} catch (BufferOverflowException expectedException) {
+			assertEquals(0, small.position());
+		}
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		long written = template.formatTo(bindings, Channels.newChannel(stream), ByteBuffer.allocate(4));
+		assertEquals(expected.length, written);
+		assertTrue(Arrays.equals(expected, stream.toByteArray()));
+	}
+
+	@Test
+	public void utf8SplitSurrogateTest() throws IOException {
+		// Pairs split between a literal and a value, or two values, are still one code point.
+		PhraseTemplate template = compile("x\ud83d{low} {high}\ude00 {high}{low} {high}");
+		PhraseTemplate.Bindings bindings = template.newBindings().put("low", "\ude00").put("high", "\ud83d");
+		byte[] expected = "x\ud83d\ude00 \ud83d\ude00 \ud83d\ude00 ?".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		assertEquals(expected.length, template.formatTo(bindings, buffer));
+		assertTrue(Arrays.equals(expected, Arrays.copyOf(buffer.array(), buffer.position())));
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		assertEquals(expected.length, template.formatTo(bindings, Channels.newChannel(stream), ByteBuffer.allocate(4)));
+		assertTrue(Arrays.equals(expected, stream.toByteArray()));
+	}
+
+	@Test
+	public void pooledFormatTest() {
+		PhraseTemplate template = compile("Hi {first_name}, you are {age} years old.");
+		RenderBufferPool pool = new RenderBufferPool(1, 64);
+		String expected = getPhraseForIdentifier("Hi Jane, you are 42 years old.");
+
+		PhraseTemplate.Bindings bindings = template.newBindings().put("first_name", "Jane").put("age", 42);
+		assertEquals(expected, template.formatString(bindings, pool));
+		assertEquals(1, pool.size());
+		try (RenderBufferPool.Text text = template.formatPooled(bindings, pool)) {
+			assertEquals(0, pool.size());
+			assertEquals(expected, text.toString());
+			assertEquals(expected.length(), text.length());
+		}
+		assertEquals(1, pool.size());
+
+		// Buffers which grew beyond the maximum length are not kept.
+		StringBuilder longName = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			longName.append('x');
+		}
+		template.formatString(bindings.put("first_name", longName), pool);
+		assertEquals(0, pool.size());
+		try {
+			template.formatString(template.newBindings(), pool);
+			fail("Expected the missing keys to be reported");
+		} catch (IllegalArgumentException e) {
+			assertEquals(1, pool.size());
+		}
+	}
+
+	@Test
+	public void concurrentFormatTest() throws Exception {
+		final PhraseTemplate template = compile("Hi {first_name}, you are {age} years old.");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> futures = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				final int offset = t * 1000;
+				futures.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						PhraseTemplate.Bindings bindings = template.newBindings();
+						for (int i = offset; i < offset + 1000; i++) {
+							String result = template.formatString(bindings.put("first_name", "user" + i).put("age", i));
+							if (!result.equals("Hi user" + i + ", you are " + i + " years old.")) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> future : futures) {
+				assertEquals(Boolean.TRUE, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
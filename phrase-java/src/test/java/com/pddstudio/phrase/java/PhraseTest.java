@@ -7,6 +7,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -16,6 +18,9 @@ import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by pddstudio on 15/10/2016.
@@ -141,4 +146,171 @@ public class PhraseTest extends BaseUtilityTest {
 		assertEquals(phrase, expected);
 	}
 
+	@Test
+	public void streamedJoinTest() throws IOException {
+		final Object[] values = { "a", new StringBuilder("b"), null, 3 };
+		final List<Object> list = Arrays.asList(values);
+		Phrase phrase = phraseFrom("{array} / {iterable}").putArray("array", values, ", ").putIterable("iterable", new Iterable<Object>() {
+			@Override
+			public Iterator<Object> iterator() {
+				return list.iterator();
+			}
+		}, "-");
+		String expected = "a, b, null, 3 / a-b-null-3";
+		StringWriter writer = new StringWriter();
+		phrase.formatTo(writer);
+		assertEquals(expected, writer.toString());
+		StringBuilder builder = new StringBuilder();
+		phrase.formatTo(builder);
+		assertEquals(expected, builder.toString());
+		assertEquals(expected, phrase.putList("iterable", list, "-").formatString());
+	}
+
+	@Test
+	public void longEscapedPatternTest() {
+		StringBuilder pattern = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			pattern.append("{{ text ").append(i).append(" {key_").append((char) ('a' + i % 26)).append("} ");
+			expected.append("{ text ").append(i).append(" ").append((char) ('A' + i % 26)).append(" ");
+		}
+		Phrase phrase = phraseFrom(pattern.toString());
+		for (int i = 0; i < 26; i++) {
+			phrase.put("key_" + (char) ('a' + i), String.valueOf((char) ('A' + i)));
+		}
+		String result = phrase.formatString();
+		printResult("longEscapedPatternTest()", result.substring(0, 40), getPhraseForIdentifier(expected.substring(0, 40)));
+		assertEquals(getPhraseForIdentifier(expected.toString()), result);
+	}
+
+	@Test
+	public void formatToTest() throws IOException {
+		String expected = getPhraseForIdentifier("Hello World, {escaped}!");
+		Phrase phrase = phraseFrom("{greeting} {who}, {{escaped}!").put("greeting", "Hello").put("who", new StringBuilder("World"));
+
+		StringWriter writer = new StringWriter();
+		phrase.formatTo(writer);
+		StringBuffer buffer = new StringBuffer();
+		phrase.formatTo(buffer);
+		StringBuilder builder = new StringBuilder("> ");
+		phrase.formatTo(builder);
+
+		printResult("formatToTest()", writer.toString(), expected);
+		assertEquals(expected, writer.toString());
+		assertEquals(expected, buffer.toString());
+		assertEquals("> " + expected, builder.toString());
+	}
+
+	@Test
+	public void incrementalTest() {
+		Phrase phrase = phraseFrom("{{cpu}: {cpu}% | mem: {mem} | {status}, {status}!").incremental()
+				.put("cpu", 7).put("mem", "512M").put("status", "ok");
+		assertEquals(null, phrase.getLastRenderStats());
+		assertEquals(getPhraseForIdentifier("{cpu}: 7% | mem: 512M | ok, ok!"), phrase.formatString());
+		assertTrue(phrase.getLastRenderStats().isFullRender());
+
+		// Longer, shorter and equally long values.
+		phrase.put("cpu", 100).put("status", "degraded");
+		assertEquals(getPhraseForIdentifier("{cpu}: 100% | mem: 512M | degraded, degraded!"), phrase.formatString());
+		Phrase.RenderStats stats = phrase.getLastRenderStats();
+		assertFalse(stats.isFullRender());
+		assertEquals(3, stats.getSegmentsRendered());
+		assertEquals(3 + 8 + 8, stats.getCharactersWritten());
+
+		phrase.put("status", "up").put("mem", "1G");
+		assertEquals(getPhraseForIdentifier("{cpu}: 100% | mem: 1G | up, up!"), phrase.formatString());
+		phrase.put("mem", "2G");
+		String result = phrase.formatString();
+		printResult("incrementalTest()", result, getPhraseForIdentifier("{cpu}: 100% | mem: 2G | up, up!"));
+		assertEquals(getPhraseForIdentifier("{cpu}: 100% | mem: 2G | up, up!"), result);
+		assertEquals(1, phrase.getLastRenderStats().getSegmentsRendered());
+	}
+
+	@Test
+	public void nestedPhraseTest() {
+		Phrase row = phraseFrom("{name}: {qty}").put("name", "Tea").put("qty", 2);
+		Phrase footer = phraseFrom("Total {total}").put("total", 9.5);
+		Phrase message = phraseFrom("{{order}} {row} | {footer}").put("row", row).put("footer", footer);
+		assertEquals(getPhraseForIdentifier("{order}} Tea: 2 | Total 9.5"), message.formatString());
+
+		// Changes to nested phrases show up without replacing them.
+		row.put("qty", 3);
+		String result = message.formatString();
+		printResult("nestedPhraseTest()", result, getPhraseForIdentifier("{order}} Tea: 3 | Total 9.5"));
+		assertEquals(getPhraseForIdentifier("{order}} Tea: 3 | Total 9.5"), result);
+
+		try {
+			footer.put("total", message);
+			fail("Expected the cycle to be reported");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void nestedPhraseFormatToTest() throws IOException {
+		Phrase inner = phraseFrom("{n}").put("n", 1);
+		Phrase outer = phraseFrom("n = {inner}").put("inner", inner);
+		assertEquals("n = 1", outer.formatString());
+
+		// The text cached by the format above is stale once the nested phrase changes.
+		inner.put("n", 2);
+		StringWriter writer = new StringWriter();
+		outer.formatTo(writer);
+		assertEquals("n = 2", writer.toString());
+		StringBuilder builder = new StringBuilder();
+		outer.formatTo(builder);
+		assertEquals("n = 2", builder.toString());
+	}
+
+	@Test
+	public void primitiveValuesTest() throws IOException {
+		String expected = "-9223372036854775808 -17 0.1 1.0E-10 3.4028235E38 NaN false";
+		Phrase phrase = phraseFrom("{long} {int} {double} {small} {float} {nan} {bool}")
+								.put("long", Long.MIN_VALUE)
+								.put("int", -17)
+								.put("double", 0.1)
+								.put("small", 1e-10)
+								.put("float", Float.MAX_VALUE)
+								.put("nan", Double.NaN)
+								.put("bool", false);
+
+		StringWriter writer = new StringWriter();
+		phrase.formatTo(writer);
+		StringBuffer buffer = new StringBuffer();
+		phrase.formatTo(buffer);
+		String result = phrase.formatString();
+
+		printResult("primitiveValuesTest()", result, expected);
+		assertEquals(expected, result);
+		assertEquals(expected, writer.toString());
+		assertEquals(expected, buffer.toString());
+	}
+
+	@Test
+	public void formattedArrayTest() throws IOException {
+		String expected = "#1, #22, #333 | [a] [b] | ";
+		Phrase phrase = phraseFrom("{ids} | {names} | {empty}")
+								.putArray("ids", new long[] { 1, 22, 333 }, ", ", new ElementFormatter<Object>() {
+									@Override
+									public void format(StringBuilder target, long element) {
+										target.append('#').append(element);
+									}
+								})
+								.putIterable("names", Arrays.asList("a", "b"), null, new ElementFormatter<String>() {
+									@Override
+									public void format(StringBuilder target, String element) {
+										target.append('[').append(element).append(']');
+									}
+								})
+								.putList("empty", new ArrayList<String>(), separator);
+
+		StringWriter writer = new StringWriter();
+		phrase.formatTo(writer);
+		String result = phrase.formatString();
+
+		printResult("formattedArrayTest()", result, expected);
+		assertEquals(expected, result);
+		assertEquals(expected, writer.toString());
+	}
+
 }
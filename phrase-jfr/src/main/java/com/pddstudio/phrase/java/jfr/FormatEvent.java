@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A render of a {@link com.pddstudio.phrase.java.PhraseTemplate}, or the reuse of the text of the
+ * last render by a {@link com.pddstudio.phrase.java.Phrase}.
+ */
+@Name("com.pddstudio.phrase.Format")
+@Label("Phrase Format")
+@Category("Phrase")
+@Description("A template rendered to text or UTF-8 bytes")
+final class FormatEvent extends jdk.jfr.Event {
+
+	@Label("Template")
+	@Description("The name of the template, or the start of its pattern if it has no name")
+	String template;
+
+	@Label("Output Length")
+	@Description("The number of chars, or bytes if encoded, produced; -1 if streamed and not counted")
+	long outputLength;
+
+	@Label("Encoded")
+	@Description("Whether the template was rendered to UTF-8 bytes")
+	boolean encoded;
+
+	@Label("Reused")
+	@Description("Whether the phrase returned the text of its last render instead of rendering")
+	boolean reused;
+
+	@Label("Elapsed")
+	@Timespan(Timespan.NANOSECONDS)
+	long elapsed;
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.jfr;
+
+import com.pddstudio.phrase.java.PhraseMetrics;
+import com.pddstudio.phrase.java.PhraseTemplate;
+
+/**
+ * {@link PhraseMetrics} which emit a JFR event for every parse and format. An event is only
+ * created and committed while it is enabled in a running recording.
+ *
+ * @see PhraseJfr#register()
+ */
+public final class JfrPhraseMetrics extends PhraseMetrics {
+
+	@Override
+	public void parsed(PhraseTemplate template, long nanos) {
+		ParseEvent event = new ParseEvent();
+		if (event.isEnabled()) {
+			event.template = templateName(template);
+			event.patternLength = template.toString().length();
+			event.keyCount = template.getKeys().size();
+			event.elapsed = nanos;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void rendered(PhraseTemplate template, long nanos, int chars) {
+		commitFormat(template, nanos, chars, false, false);
+	}
+
+	@Override
+	public void reused(PhraseTemplate template, int chars) {
+		commitFormat(template, 0, chars, false, true);
+	}
+
+	@Override
+	public void encoded(PhraseTemplate template, long nanos, long bytes) {
+		commitFormat(template, nanos, bytes, true, false);
+	}
+
+	private static void commitFormat(PhraseTemplate template, long nanos, long outputLength, boolean encoded, boolean reused) {
+		FormatEvent event = new FormatEvent();
+		if (event.isEnabled()) {
+			event.template = templateName(template);
+			event.outputLength = outputLength;
+			event.encoded = encoded;
+			event.reused = reused;
+			event.elapsed = nanos;
+			event.commit();
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.jfr;
+
+import com.pddstudio.phrase.java.commons.metrics.TagMetrics;
+
+/**
+ * {@link TagMetrics} which emit a JFR event for every tag scan. An event is only created and
+ * committed while it is enabled in a running recording.
+ *
+ * @see PhraseJfr#register()
+ */
+public final class JfrTagMetrics extends TagMetrics {
+
+	@Override
+	public void tagScanned(CharSequence tagName, long nanos, int matches, int inputLength) {
+		TagScanEvent event = new TagScanEvent();
+		if (event.isEnabled()) {
+			event.tagName = String.valueOf(tagName);
+			event.inputLength = inputLength;
+			event.matches = matches;
+			event.elapsed = nanos;
+			event.commit();
+		}
+	}
+
+}
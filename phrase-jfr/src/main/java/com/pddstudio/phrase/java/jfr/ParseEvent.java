@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The parse of a pattern into a {@link com.pddstudio.phrase.java.PhraseTemplate}.
+ */
+@Name("com.pddstudio.phrase.Parse")
+@Label("Phrase Parse")
+@Category("Phrase")
+@Description("A pattern parsed into a template")
+final class ParseEvent extends jdk.jfr.Event {
+
+	@Label("Template")
+	@Description("The name of the template, or the start of its pattern if it has no name")
+	String template;
+
+	@Label("Pattern Length")
+	int patternLength;
+
+	@Label("Key Count")
+	int keyCount;
+
+	@Label("Elapsed")
+	@Timespan(Timespan.NANOSECONDS)
+	long elapsed;
+
+}
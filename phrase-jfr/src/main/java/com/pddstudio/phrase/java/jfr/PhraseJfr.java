@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.jfr;
+
+import com.pddstudio.phrase.java.PhraseMetrics;
+import com.pddstudio.phrase.java.commons.metrics.TagMetrics;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Emits JFR events for the parses and formats of templates and for tag scans. Canonical usage,
+ * once at startup:
+ * <pre>
+ *   PhraseJfr.register();
+ * </pre>
+ * From then on {@link JfrPhraseMetrics} and {@link JfrTagMetrics} are installed while any
+ * recording is running, and the metrics installed before are restored when the last recording
+ * stops. Between recordings templates and tag scans don't even read the clock.
+ */
+public final class PhraseJfr {
+
+	private static final Listener LISTENER = new Listener();
+
+	private static boolean registered;
+
+	private PhraseJfr() {
+	}
+
+	/**
+	 * Starts emitting events while recordings are running; does nothing if already registered or
+	 * if the JVM has no flight recorder.
+	 */
+	public static synchronized void register() {
+		if (registered || !FlightRecorder.isAvailable()) {
+			return;
+		}
+		FlightRecorder.register(ParseEvent.class);
+		FlightRecorder.register(FormatEvent.class);
+		FlightRecorder.register(TagScanEvent.class);
+		FlightRecorder.addListener(LISTENER);
+		registered = true;
+		if (FlightRecorder.isInitialized()) {
+			LISTENER.update();
+		}
+	}
+
+	/** Stops emitting events and restores the metrics installed before. */
+	public static synchronized void unregister() {
+		if (!registered) {
+			return;
+		}
+		FlightRecorder.removeListener(LISTENER);
+		LISTENER.uninstall();
+		registered = false;
+	}
+
+	private static final class Listener implements FlightRecorderListener {
+
+		private final JfrPhraseMetrics phraseMetrics = new JfrPhraseMetrics();
+		private final JfrTagMetrics tagMetrics = new JfrTagMetrics();
+
+		private PhraseMetrics previousPhraseMetrics;
+		private TagMetrics previousTagMetrics;
+		private boolean installed;
+
+		@Override
+		public void recordingStateChanged(Recording recording) {
+			update();
+		}
+
+		synchronized void update() {
+			boolean running = false;
+			for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+				if (recording.getState() == RecordingState.RUNNING) {
+					running = true;
+					break;
+				}
+			}
+			if (running) {
+				install();
+			} else {
+				uninstall();
+			}
+		}
+
+		private synchronized void install() {
+			if (!installed) {
+				previousPhraseMetrics = PhraseMetrics.installed();
+				previousTagMetrics = TagMetrics.installed();
+				PhraseMetrics.install(phraseMetrics);
+				TagMetrics.install(tagMetrics);
+				installed = true;
+			}
+		}
+
+		synchronized void uninstall() {
+			if (installed) {
+				// Keep metrics installed by someone else during the recording.
+				if (PhraseMetrics.installed() == phraseMetrics) {
+					PhraseMetrics.install(previousPhraseMetrics);
+				}
+				if (TagMetrics.installed() == tagMetrics) {
+					TagMetrics.install(previousTagMetrics);
+				}
+				installed = false;
+			}
+		}
+	}
+
+}
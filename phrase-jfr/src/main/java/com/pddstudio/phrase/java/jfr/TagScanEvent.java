@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016 Patrick J
+ * Copyright (C) 2013 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pddstudio.phrase.java.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A scan of an input for a single tag by the {@link com.pddstudio.phrase.java.commons.tag.TagFinder}.
+ */
+@Name("com.pddstudio.phrase.TagScan")
+@Label("Tag Scan")
+@Category("Phrase")
+@Description("An input scanned for the values of a tag")
+final class TagScanEvent extends jdk.jfr.Event {
+
+	@Label("Tag Name")
+	String tagName;
+
+	@Label("Input Length")
+	int inputLength;
+
+	@Label("Matches")
+	int matches;
+
+	@Label("Elapsed")
+	@Timespan(Timespan.NANOSECONDS)
+	long elapsed;
+
+}
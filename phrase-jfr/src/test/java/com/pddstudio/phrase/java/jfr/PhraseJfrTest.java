@@ -0,0 +1,104 @@
+package com.pddstudio.phrase.java.jfr;
+
+import com.pddstudio.phrase.java.Phrase;
+import com.pddstudio.phrase.java.PhraseMetrics;
+import com.pddstudio.phrase.java.commons.metrics.TagMetrics;
+import com.pddstudio.phrase.java.commons.tag.Tag;
+import com.pddstudio.phrase.java.commons.tag.TagFinder;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the JFR events emitted after {@link PhraseJfr#register()}.
+ */
+public class PhraseJfrTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void tearDown() {
+		PhraseJfr.unregister();
+	}
+
+	@Test
+	public void recordingTest() throws Exception {
+		PhraseJfr.register();
+		assertSame(PhraseMetrics.NOOP, PhraseMetrics.installed());
+
+		List<RecordedEvent> events;
+		try (Recording recording = new Recording()) {
+			recording.enable(ParseEvent.class);
+			recording.enable(FormatEvent.class);
+			recording.enable(TagScanEvent.class);
+			recording.start();
+			assertTrue(PhraseMetrics.installed() instanceof JfrPhraseMetrics);
+			assertTrue(TagMetrics.installed() instanceof JfrTagMetrics);
+
+			// A pattern of its own, so that the template cache can't have parsed it before.
+			Phrase phrase = Phrase.from("Hello {name}, this is the recording test, with a pattern longer than the template name!").put("name", "JFR");
+			phrase.format();
+			phrase.format();
+			TagFinder.in("<b>one</b> <b>two</b>").find(new Tag("bold", "<b>", "</b>")).execute();
+
+			recording.stop();
+			Path file = folder.newFile("phrase.jfr").toPath();
+			recording.dump(file);
+			events = RecordingFile.readAllEvents(file);
+		}
+		assertSame(PhraseMetrics.NOOP, PhraseMetrics.installed());
+		assertSame(TagMetrics.NOOP, TagMetrics.installed());
+
+		RecordedEvent parse = single(events, "com.pddstudio.phrase.Parse");
+		// Unnamed templates are recorded under the start of their pattern.
+		assertEquals("Hello {name}, this is the recording test, with a pattern longer ", parse.getString("template"));
+		assertEquals(87, parse.getInt("patternLength"));
+		assertEquals(1, parse.getInt("keyCount"));
+
+		List<RecordedEvent> formats = all(events, "com.pddstudio.phrase.Format");
+		assertEquals(2, formats.size());
+		assertFalse(formats.get(0).getBoolean("reused"));
+		assertTrue(formats.get(1).getBoolean("reused"));
+		assertEquals("Hello {name}, this is the recording test, with a pattern longer ", formats.get(0).getString("template"));
+		assertEquals(84, formats.get(0).getLong("outputLength"));
+
+		RecordedEvent tagScan = single(events, "com.pddstudio.phrase.TagScan");
+		assertEquals("bold", tagScan.getString("tagName"));
+		assertEquals(2, tagScan.getInt("matches"));
+		assertEquals(21, tagScan.getInt("inputLength"));
+	}
+
+	private static RecordedEvent single(List<RecordedEvent> events, String name) {
+		List<RecordedEvent> matching = all(events, name);
+		assertEquals(1, matching.size());
+		return matching.get(0);
+	}
+
+	private static List<RecordedEvent> all(List<RecordedEvent> events, String name) {
+		List<RecordedEvent> matching = new ArrayList<>();
+		for (RecordedEvent event : events) {
+			if (event.getEventType().getName().equals(name)) {
+				matching.add(event);
+			}
+		}
+		matching.sort((a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+		return matching;
+	}
+
+}